@@ -0,0 +1,259 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.output.ContentDeduplicator;
+import bithazard.game.grimrock.parse.ParseResultCache;
+import bithazard.game.grimrock.parse.SubScriptCache;
+import bithazard.game.grimrock.resolve.NameDictionary;
+import bithazard.game.grimrock.resolve.ResourceHashIndex;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BatchExtractor {
+    public static final String COMMAND = "batch";
+    private static final String MOD_FILE_EXTENSION = ".dat";
+    private final CommandLine commandLine;
+    private final int threads;
+    private NameDictionary nameDictionary;
+    private ParseResultCache parseResultCache;
+    private ContentDeduplicator contentDeduplicator;
+    private SubScriptCache subScriptCache;
+    //resource strings found in all mods; equal strings of different mods share one instance
+    private final ConcurrentMap<String, String> stringPool = new ConcurrentHashMap<>();
+
+    private static final class BatchItem {
+        private final File modFilePath;
+        //the name of the log file is only known once all mods are analyzed, the few lines logged until then are buffered
+        private ByteArrayOutputStream logBuffer = new ByteArrayOutputStream();
+        private PrintStream log = new PrintStream(logBuffer, true, StandardCharsets.UTF_8);
+        private File logFile;
+        private ModAnalysis modAnalysis;
+        private File targetPathWithModDir;
+        private ExtractionSummary extractionSummary;
+
+        private BatchItem(File modFilePath) {
+            this.modFilePath = modFilePath;
+        }
+
+        private void fail(Exception e) {
+            log.println("Extraction failed: " + e);
+            extractionSummary = ExtractionSummary.failed(modFilePath, String.valueOf(e.getMessage()));
+        }
+
+        //everything logged from now on is written to the log file directly
+        private void openLogFile(File logFile) throws IOException {
+            PrintStream fileLog = new PrintStream(new BufferedOutputStream(Files.newOutputStream(logFile.toPath())), false, StandardCharsets.UTF_8);
+            fileLog.write(logBuffer.toByteArray());
+            this.logFile = logFile;
+            logBuffer = null;
+            log = fileLog;
+        }
+
+        private void closeLogFile() {
+            if (logFile == null) {
+                return;
+            }
+            log.close();
+            if (log.checkError()) {
+                System.err.println("Could not write log file " + logFile);
+            }
+        }
+
+        private void writeBufferedLog(File logFile) throws IOException {
+            if (logBuffer != null) {
+                Files.write(logFile.toPath(), logBuffer.toByteArray());
+            }
+        }
+
+        private String getLogFilename() {
+            return (targetPathWithModDir != null ? targetPathWithModDir.getName() : modFilePath.getName()) + ".log";
+        }
+    }
+
+    private interface BatchItemTask {
+        void process(BatchItem batchItem) throws IOException;
+    }
+
+    public BatchExtractor(CommandLine commandLine, int threads) {
+        this.commandLine = commandLine;
+        this.threads = threads;
+    }
+
+    public static void run(CommandLine commandLine) throws IOException {
+        List<String> arguments = commandLine.getArguments();
+        if (arguments.size() < 3) {
+            System.err.println("Please pass an output path and at least one mod file or directory containing mod files: " + COMMAND
+                    + " <output path> <mod files or directories>");
+            return;
+        }
+        List<File> modFilePaths = findModFiles(arguments.subList(2, arguments.size()));
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        new BatchExtractor(commandLine, threads).extract(modFilePaths, new File(arguments.get(1)));
+    }
+
+    public List<ExtractionSummary> extract(List<File> modFilePaths, File targetPath) throws IOException {
+        long startTime = System.nanoTime();
+        Files.createDirectories(targetPath.toPath());
+        nameDictionary = ModExtractor.openNameDictionary(commandLine);
+        parseResultCache = ModExtractor.openParseResultCache(commandLine);
+        contentDeduplicator = ModExtractor.createContentDeduplicator(commandLine);
+        //embedded scripts are shared by the mods of this run only
+        subScriptCache = new SubScriptCache();
+        List<BatchItem> batchItems = modFilePaths.stream().map(BatchItem::new).collect(Collectors.toList());
+
+        System.out.println("Parsing " + batchItems.size() + " mod files...");
+        processBatchItems(batchItems, batchItem -> {
+            try (ModFileReader modFileReader = new ModFileReader(batchItem.modFilePath.toPath())) {
+                batchItem.modAnalysis = createModExtractor(batchItem).analyzeMod(batchItem.modFilePath, modFileReader);
+            }
+        });
+        //Lua files are only parsed in the first pass, the cached scripts can be garbage collected now
+        subScriptCache = null;
+
+        //the lookup table is built once from the resource strings of all mods, so that names found in one mod also resolve files in the others
+        Collection<String> sharedResourceStrings = new LinkedHashSet<>();
+        Set<String> usedModDirectoryNames = new HashSet<>();
+        for (BatchItem batchItem : batchItems) {
+            if (batchItem.modAnalysis != null) {
+                //duplicates are also found across mods, so the sizes of all mods are needed
+                ModExtractor.addFileSizes(batchItem.modAnalysis, contentDeduplicator);
+                sharedResourceStrings.addAll(batchItem.modAnalysis.getResourceStrings());
+                String modDirectoryName = ModExtractor.getModDirectoryName(batchItem.modAnalysis.getModStructure().getModInfo());
+                String uniqueModDirectoryName = modDirectoryName;
+                for (int i = 2; !usedModDirectoryNames.add(uniqueModDirectoryName.toLowerCase()); i++) {
+                    uniqueModDirectoryName = modDirectoryName + " (" + i + ")";
+                }
+                batchItem.targetPathWithModDir = new File(targetPath, uniqueModDirectoryName);
+            }
+        }
+        ResourceHashIndex sharedResourceHashes = new ModExtractor().calculateResourceHashes(sharedResourceStrings);
+        System.out.println("Built lookup table with " + sharedResourceHashes.size() + " resource strings.");
+
+        System.out.println("Extracting " + batchItems.size() + " mod files...");
+        processBatchItems(batchItems, batchItem -> {
+            if (batchItem.modAnalysis == null) {
+                return;
+            }
+            batchItem.openLogFile(new File(targetPath, batchItem.getLogFilename()));
+            try (ModFileReader modFileReader = new ModFileReader(batchItem.modFilePath.toPath())) {
+                batchItem.extractionSummary = createModExtractor(batchItem).extractMod(batchItem.modAnalysis, modFileReader, sharedResourceHashes,
+                        batchItem.targetPathWithModDir);
+            }
+            batchItem.modAnalysis = null;
+        });
+
+        List<ExtractionSummary> extractionSummaries = new ArrayList<>();
+        for (BatchItem batchItem : batchItems) {
+            //only mods that failed before they were extracted still have their log in memory
+            batchItem.writeBufferedLog(new File(targetPath, batchItem.getLogFilename()));
+            extractionSummaries.add(batchItem.extractionSummary);
+        }
+        //the dictionary is shared by all mods, so it is saved only once at the end
+        ModExtractor.saveNameDictionary(nameDictionary);
+        if (parseResultCache != null) {
+            parseResultCache.evict();
+        }
+        printSummary(extractionSummaries, System.nanoTime() - startTime);
+        if (contentDeduplicator != null) {
+            System.out.println(contentDeduplicator.getReport());
+        }
+        return extractionSummaries;
+    }
+
+    private ModExtractor createModExtractor(BatchItem batchItem) {
+        //mods are processed in parallel, so every single mod is processed with one thread
+        ModExtractor modExtractor = ModExtractor.create(commandLine, 1);
+        modExtractor.setLog(batchItem.log);
+        modExtractor.setStringPool(stringPool);
+        modExtractor.setNameDictionary(nameDictionary);
+        modExtractor.setParseResultCache(parseResultCache);
+        modExtractor.setSubScriptCache(subScriptCache);
+        modExtractor.setContentDeduplicator(contentDeduplicator);
+        return modExtractor;
+    }
+
+    private void processBatchItems(List<BatchItem> batchItems, BatchItemTask batchItemTask) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (BatchItem batchItem : batchItems) {
+                results.add(executorService.submit(() -> {
+                    if (batchItem.extractionSummary != null) {
+                        return;
+                    }
+                    try {
+                        batchItemTask.process(batchItem);
+                    } catch (IOException | RuntimeException e) {
+                        batchItem.fail(e);
+                        batchItem.modAnalysis = null;
+                    } finally {
+                        batchItem.closeLogFile();
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                ConcurrencyUtils.awaitResult(result);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void printSummary(List<ExtractionSummary> extractionSummaries, long elapsedNanos) {
+        System.out.println();
+        System.out.println("Summary:");
+        int failedCount = 0;
+        int fileCount = 0;
+        int unresolvedFileCount = 0;
+        int warningCount = 0;
+        for (ExtractionSummary extractionSummary : extractionSummaries) {
+            System.out.println(extractionSummary);
+            if (extractionSummary.isFailed()) {
+                failedCount++;
+            }
+            fileCount += extractionSummary.getFileCount();
+            unresolvedFileCount += extractionSummary.getUnresolvedFileCount();
+            warningCount += extractionSummary.getWarningCount();
+        }
+        System.out.println((extractionSummaries.size() - failedCount) + " of " + extractionSummaries.size() + " mod files extracted in "
+                + (elapsedNanos / 1_000_000) + " ms: " + fileCount + " files, " + unresolvedFileCount + " unresolved, " + warningCount + " warnings");
+    }
+
+    static List<File> findModFiles(List<String> sourcePaths) throws IOException {
+        List<File> modFilePaths = new ArrayList<>();
+        for (String sourcePath : sourcePaths) {
+            Path path = Path.of(sourcePath);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.filter(Files::isRegularFile)
+                            .filter(file -> file.getFileName().toString().toLowerCase().endsWith(MOD_FILE_EXTENSION))
+                            .sorted()
+                            .forEach(file -> modFilePaths.add(file.toFile()));
+                }
+            } else {
+                modFilePaths.add(path.toFile());
+            }
+        }
+        return modFilePaths;
+    }
+}
@@ -0,0 +1,52 @@
+package bithazard.game.grimrock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CommandLine {
+    private static final String OPTION_PREFIX = "--";
+    private final List<String> arguments = new ArrayList<>();
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    public CommandLine(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(OPTION_PREFIX) && arg.length() > OPTION_PREFIX.length()) {
+                String option = arg.substring(OPTION_PREFIX.length());
+                int equalsPosition = option.indexOf('=');
+                if (equalsPosition == -1) {
+                    options.put(option, "true");
+                } else {
+                    options.put(option.substring(0, equalsPosition), option.substring(equalsPosition + 1));
+                }
+            } else {
+                arguments.add(arg);
+            }
+        }
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public boolean hasOption(String name) {
+        return options.containsKey(name);
+    }
+
+    public String getOption(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public int getIntOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number but was '" + value + "'.", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.resolve.ResourceHashIndex;
+import bithazard.game.grimrock.utils.ByteUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+//Selects the entries of a mod by hash (e.g. 1a2b3c4d or 1a2b3c4d.tmp), by path (e.g. mod_assets/scripts/init.lua) or by a glob that is
+//matched against the resolved path or the temporary filename of unresolved entries. Globs support *, ** (also matches /), ? and {a,b}.
+public class EntryFilter {
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-fA-F]{1,8}(\\.tmp)?");
+    private final Set<Integer> hashes = new HashSet<>();
+    private final Collection<String> paths = new LinkedHashSet<>();
+    private final List<Pattern> globs = new ArrayList<>();
+    private boolean hasHashPatterns;
+
+    //patterns are separated by commas, except for commas inside of braces
+    public EntryFilter(String patterns) {
+        for (String pattern : splitPatterns(patterns)) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (HASH_PATTERN.matcher(pattern).matches()) {
+                hashes.add(Integer.parseUnsignedInt(pattern.replace(".tmp", ""), 16));
+                hasHashPatterns = true;
+            } else if (isGlob(pattern)) {
+                globs.add(Pattern.compile(globToRegex(pattern)));
+            } else {
+                paths.add(pattern);
+                hashes.add(ByteUtils.calculateFnv1aHash(pattern));
+            }
+        }
+    }
+
+    //hashes and globs can only be matched with the names of all entries, paths already contain the name
+    public boolean requiresResolvedNames() {
+        return !globs.isEmpty() || hasHashPatterns;
+    }
+
+    public Collection<String> getPaths() {
+        return paths;
+    }
+
+    public boolean matchesHash(DirectoryEntry directoryEntry) {
+        return hashes.contains((int)directoryEntry.getFnv1aHash());
+    }
+
+    public boolean matches(DirectoryEntry directoryEntry, String name) {
+        if (matchesHash(directoryEntry)) {
+            return true;
+        }
+        for (Pattern glob : globs) {
+            if (glob.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<DirectoryEntry> select(List<DirectoryEntry> directoryEntries, ResourceHashIndex resourceHashes) {
+        List<DirectoryEntry> selectedEntries = new ArrayList<>();
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            String name = resourceHashes.get((int)directoryEntry.getFnv1aHash());
+            if (matches(directoryEntry, name != null ? name : Long.toHexString(directoryEntry.getFnv1aHash()) + ".tmp")) {
+                selectedEntries.add(directoryEntry);
+            }
+        }
+        return selectedEntries;
+    }
+
+    private static List<String> splitPatterns(String patterns) {
+        List<String> splitPatterns = new ArrayList<>();
+        int braceDepth = 0;
+        int patternStart = 0;
+        for (int i = 0; i < patterns.length(); i++) {
+            char c = patterns.charAt(i);
+            if (c == '{') {
+                braceDepth++;
+            } else if (c == '}') {
+                braceDepth--;
+            } else if (c == ',' && braceDepth == 0) {
+                splitPatterns.add(patterns.substring(patternStart, i).trim());
+                patternStart = i + 1;
+            }
+        }
+        splitPatterns.add(patterns.substring(patternStart).trim());
+        return splitPatterns;
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') != -1 || pattern.indexOf('?') != -1 || pattern.indexOf('{') != -1;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int braceDepth = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '{') {
+                regex.append("(?:");
+                braceDepth++;
+            } else if (c == '}' && braceDepth > 0) {
+                regex.append(')');
+                braceDepth--;
+            } else if (c == ',' && braceDepth > 0) {
+                regex.append('|');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (braceDepth > 0) {
+            throw new IllegalArgumentException("Unclosed brace in pattern '" + glob + "'.");
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package bithazard.game.grimrock;
+
+import java.io.File;
+
+public class ExtractionSummary {
+    private final File modFilePath;
+    private final String dungeonName;
+    private final int fileCount;
+    private final int unresolvedFileCount;
+    private final int warningCount;
+    private final String failure;
+
+    public ExtractionSummary(File modFilePath, String dungeonName, int fileCount, int unresolvedFileCount, int warningCount) {
+        this(modFilePath, dungeonName, fileCount, unresolvedFileCount, warningCount, null);
+    }
+
+    private ExtractionSummary(File modFilePath, String dungeonName, int fileCount, int unresolvedFileCount, int warningCount, String failure) {
+        this.modFilePath = modFilePath;
+        this.dungeonName = dungeonName;
+        this.fileCount = fileCount;
+        this.unresolvedFileCount = unresolvedFileCount;
+        this.warningCount = warningCount;
+        this.failure = failure;
+    }
+
+    public static ExtractionSummary failed(File modFilePath, String failure) {
+        return new ExtractionSummary(modFilePath, null, 0, 0, 0, failure);
+    }
+
+    public File getModFilePath() {
+        return modFilePath;
+    }
+
+    public String getDungeonName() {
+        return dungeonName;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getUnresolvedFileCount() {
+        return unresolvedFileCount;
+    }
+
+    public int getWarningCount() {
+        return warningCount;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        if (isFailed()) {
+            return "FAILED " + modFilePath + ": " + failure;
+        }
+        return "OK     " + modFilePath + " -> " + dungeonName + ": " + fileCount + " files, " + unresolvedFileCount + " unresolved, " + warningCount
+                + " warnings";
+    }
+}
@@ -0,0 +1,48 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.model.ModStructure;
+import bithazard.game.grimrock.parse.ErrorCollector;
+import bithazard.game.grimrock.utils.FileUtils;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+public class ModAnalysis {
+    private final File modFilePath;
+    private final ModStructure modStructure;
+    private final Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes;
+    private final Collection<String> resourceStrings;
+    private final ErrorCollector errorCollector;
+
+    public ModAnalysis(File modFilePath, ModStructure modStructure, Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes,
+                       Collection<String> resourceStrings, ErrorCollector errorCollector) {
+        this.modFilePath = modFilePath;
+        this.modStructure = modStructure;
+        this.filetypes = filetypes;
+        this.resourceStrings = resourceStrings;
+        this.errorCollector = errorCollector;
+    }
+
+    public File getModFilePath() {
+        return modFilePath;
+    }
+
+    public ModStructure getModStructure() {
+        return modStructure;
+    }
+
+    public Map<DirectoryEntry, Optional<FileUtils.Filetype>> getFiletypes() {
+        return filetypes;
+    }
+
+    public Collection<String> getResourceStrings() {
+        return resourceStrings;
+    }
+
+    public ErrorCollector getErrorCollector() {
+        return errorCollector;
+    }
+}
@@ -0,0 +1,218 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.resolve.NameDictionary;
+import bithazard.game.grimrock.resolve.ResourceHashIndex;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Compares two versions of a mod by their directories. Entries with the same hash are only inflated if their sizes are equal but their
+//compressed data differs, so that an update that touches a few files does not require to inflate the whole mod.
+public class ModDiffer {
+    public static final String COMMAND = "diff";
+    private static final int COMPARE_BUFFER_LENGTH = 65536;
+    private final CommandLine commandLine;
+    private final int threads;
+
+    private enum ChangeType {
+        ADDED("+"), REMOVED("-"), CHANGED("~");
+
+        private final String symbol;
+
+        ChangeType(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private static final class Change {
+        private final ChangeType changeType;
+        private final DirectoryEntry directoryEntry;
+        private final String details;
+        //only known once all changes are found, because names are only resolved if a change needs them
+        private String name;
+
+        private Change(ChangeType changeType, DirectoryEntry directoryEntry, String details) {
+            this.changeType = changeType;
+            this.directoryEntry = directoryEntry;
+            this.details = details;
+        }
+    }
+
+    public ModDiffer(CommandLine commandLine, int threads) {
+        this.commandLine = commandLine;
+        this.threads = threads;
+    }
+
+    public static void run(CommandLine commandLine) throws IOException {
+        List<String> arguments = commandLine.getArguments();
+        if (arguments.size() != 3) {
+            System.err.println("Please pass the old and the new version of a mod file: " + COMMAND + " <old mod file> <new mod file>");
+            return;
+        }
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        new ModDiffer(commandLine, threads).diff(new File(arguments.get(1)), new File(arguments.get(2)));
+    }
+
+    public void diff(File oldModFilePath, File newModFilePath) throws IOException {
+        try (ModFileReader oldModFileReader = new ModFileReader(oldModFilePath.toPath());
+             ModFileReader newModFileReader = new ModFileReader(newModFilePath.toPath())) {
+            Map<Integer, DirectoryEntry> oldEntries = getEntriesByHash(oldModFileReader.readModStructure().getDirectoryEntries());
+            Map<Integer, DirectoryEntry> newEntries = getEntriesByHash(newModFileReader.readModStructure().getDirectoryEntries());
+
+            List<Change> changes = new ArrayList<>();
+            List<DirectoryEntry[]> entriesToInflate = new ArrayList<>();
+            int unchangedCount = 0;
+            for (Map.Entry<Integer, DirectoryEntry> oldEntry : oldEntries.entrySet()) {
+                DirectoryEntry newEntry = newEntries.get(oldEntry.getKey());
+                if (newEntry == null) {
+                    changes.add(new Change(ChangeType.REMOVED, oldEntry.getValue(), oldEntry.getValue().getUncompressedSize() + " bytes"));
+                } else if (oldEntry.getValue().getUncompressedSize() != newEntry.getUncompressedSize()) {
+                    changes.add(new Change(ChangeType.CHANGED, newEntry, oldEntry.getValue().getUncompressedSize() + " -> "
+                            + newEntry.getUncompressedSize() + " bytes"));
+                } else if (oldModFileReader.hasEqualCompressedData(oldEntry.getValue(), newModFileReader, newEntry)) {
+                    unchangedCount++;
+                } else {
+                    entriesToInflate.add(new DirectoryEntry[] {oldEntry.getValue(), newEntry});
+                }
+            }
+            for (Map.Entry<Integer, DirectoryEntry> newEntry : newEntries.entrySet()) {
+                if (!oldEntries.containsKey(newEntry.getKey())) {
+                    changes.add(new Change(ChangeType.ADDED, newEntry.getValue(), newEntry.getValue().getUncompressedSize() + " bytes"));
+                }
+            }
+
+            //the sizes are equal and the compressed data differs, only the content can tell if the file was changed
+            List<Boolean> contentEqualities = compareContents(entriesToInflate, oldModFileReader, newModFileReader);
+            for (int i = 0; i < entriesToInflate.size(); i++) {
+                if (contentEqualities.get(i)) {
+                    unchangedCount++;
+                } else {
+                    DirectoryEntry newEntry = entriesToInflate.get(i)[1];
+                    changes.add(new Change(ChangeType.CHANGED, newEntry, newEntry.getUncompressedSize() + " bytes, same size"));
+                }
+            }
+
+            int inflatedLuaFileCount = resolveNames(changes, oldModFilePath, oldModFileReader, newModFilePath, newModFileReader);
+            changes.sort(Comparator.comparing((Change change) -> change.name).thenComparing(change -> change.changeType));
+            for (Change change : changes) {
+                System.out.println(change.changeType.symbol + " " + change.name + " (" + change.details + ")");
+            }
+            System.out.println(countChanges(changes, ChangeType.ADDED) + " added, " + countChanges(changes, ChangeType.REMOVED) + " removed, "
+                    + countChanges(changes, ChangeType.CHANGED) + " changed, " + unchangedCount + " unchanged (" + entriesToInflate.size()
+                    + " entries had to be inflated to compare them, " + inflatedLuaFileCount + " Lua files to resolve names)");
+        }
+    }
+
+    //Names are looked up in the name dictionary first. Only if that leaves a change without a name, the resource strings of both versions
+    //are used, for which all Lua files are inflated. Returns the number of inflated Lua files.
+    private int resolveNames(List<Change> changes, File oldModFilePath, ModFileReader oldModFileReader, File newModFilePath,
+                             ModFileReader newModFileReader) throws IOException {
+        NameDictionary nameDictionary = ModExtractor.openNameDictionary(commandLine);
+        ResourceHashIndex dictionaryHashes = new ResourceHashIndex();
+        if (nameDictionary != null) {
+            for (Change change : changes) {
+                int fnv1aHash = (int)change.directoryEntry.getFnv1aHash();
+                String dictionaryName = nameDictionary.get(fnv1aHash);
+                if (dictionaryName != null) {
+                    dictionaryHashes.put(fnv1aHash, dictionaryName);
+                }
+            }
+        }
+        if (changes.stream().allMatch(change -> dictionaryHashes.contains((int)change.directoryEntry.getFnv1aHash()))) {
+            setNames(changes, dictionaryHashes);
+            return 0;
+        }
+        ModExtractor modExtractor = ModExtractor.create(commandLine, threads);
+        modExtractor.setLog(new PrintStream(OutputStream.nullOutputStream()));
+        ModAnalysis oldModAnalysis = modExtractor.analyzeMod(oldModFilePath, oldModFileReader);
+        ModAnalysis newModAnalysis = modExtractor.analyzeMod(newModFilePath, newModFileReader);
+        Collection<String> resourceStrings = new LinkedHashSet<>(oldModAnalysis.getResourceStrings());
+        resourceStrings.addAll(newModAnalysis.getResourceStrings());
+        //names found in the resource strings take precedence over the dictionary, like during extraction
+        ResourceHashIndex resourceHashes = modExtractor.calculateResourceHashes(resourceStrings);
+        ResourceHashIndex combinedHashes = new ResourceHashIndex(resourceHashes);
+        dictionaryHashes.forEach((fnv1aHash, dictionaryName) -> {
+            if (!resourceHashes.contains(fnv1aHash)) {
+                combinedHashes.put(fnv1aHash, dictionaryName);
+            }
+        });
+        setNames(changes, combinedHashes);
+        return ModExtractor.getLuaEntries(oldModAnalysis.getFiletypes()).size() + ModExtractor.getLuaEntries(newModAnalysis.getFiletypes()).size();
+    }
+
+    private static void setNames(List<Change> changes, ResourceHashIndex resourceHashes) {
+        for (Change change : changes) {
+            change.name = getName(change.directoryEntry, resourceHashes);
+        }
+    }
+
+    private List<Boolean> compareContents(List<DirectoryEntry[]> entryPairs, ModFileReader oldModFileReader, ModFileReader newModFileReader)
+            throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futureResults = new ArrayList<>();
+            for (DirectoryEntry[] entryPair : entryPairs) {
+                futureResults.add(executorService.submit(() -> hasEqualContent(oldModFileReader, entryPair[0], newModFileReader, entryPair[1])));
+            }
+            List<Boolean> results = new ArrayList<>();
+            for (Future<Boolean> futureResult : futureResults) {
+                results.add(ConcurrencyUtils.awaitResult(futureResult));
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static boolean hasEqualContent(ModFileReader oldModFileReader, DirectoryEntry oldEntry, ModFileReader newModFileReader,
+                                           DirectoryEntry newEntry) throws IOException {
+        byte[] oldBuffer = new byte[COMPARE_BUFFER_LENGTH];
+        byte[] newBuffer = new byte[COMPARE_BUFFER_LENGTH];
+        try (InputStream oldInputStream = oldModFileReader.openEntryStream(oldEntry);
+             InputStream newInputStream = newModFileReader.openEntryStream(newEntry)) {
+            while (true) {
+                int oldReadCount = oldInputStream.readNBytes(oldBuffer, 0, oldBuffer.length);
+                int newReadCount = newInputStream.readNBytes(newBuffer, 0, newBuffer.length);
+                if (!Arrays.equals(oldBuffer, 0, oldReadCount, newBuffer, 0, newReadCount)) {
+                    return false;
+                }
+                if (oldReadCount < oldBuffer.length) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, DirectoryEntry> getEntriesByHash(List<DirectoryEntry> directoryEntries) {
+        Map<Integer, DirectoryEntry> entriesByHash = new LinkedHashMap<>();
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            entriesByHash.put((int)directoryEntry.getFnv1aHash(), directoryEntry);
+        }
+        return entriesByHash;
+    }
+
+    private static String getName(DirectoryEntry directoryEntry, ResourceHashIndex resourceHashes) {
+        String name = resourceHashes.get((int)directoryEntry.getFnv1aHash());
+        return name != null ? name : Long.toHexString(directoryEntry.getFnv1aHash()) + ".tmp";
+    }
+
+    private static long countChanges(List<Change> changes, ChangeType changeType) {
+        return changes.stream().filter(change -> change.changeType == changeType).count();
+    }
+}
@@ -1,165 +1,445 @@
 package bithazard.game.grimrock;
 
 import bithazard.game.grimrock.model.DirectoryEntry;
-import bithazard.game.grimrock.model.EditorVersionInfo;
-import bithazard.game.grimrock.model.FileHeader;
 import bithazard.game.grimrock.model.ModInfo;
-import bithazard.game.grimrock.model.ModInfoEntry;
 import bithazard.game.grimrock.model.ModStructure;
+import bithazard.game.grimrock.output.ContentDeduplicator;
+import bithazard.game.grimrock.output.OutputFormat;
+import bithazard.game.grimrock.output.OutputPlanner;
+import bithazard.game.grimrock.output.OutputSink;
 import bithazard.game.grimrock.parse.ErrorCollector;
 import bithazard.game.grimrock.parse.LuaResourceParser;
-import bithazard.game.grimrock.utils.ByteUtils;
+import bithazard.game.grimrock.parse.ParseResultCache;
+import bithazard.game.grimrock.parse.SubScriptCache;
+import bithazard.game.grimrock.resolve.FilenameRecovery;
+import bithazard.game.grimrock.resolve.NameDictionary;
+import bithazard.game.grimrock.resolve.ResourceHashIndex;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
 import bithazard.game.grimrock.utils.FileUtils;
-import bithazard.game.grimrock.utils.LuaUtils;
-import org.apache.commons.io.IOUtils;
+import bithazard.game.grimrock.utils.LuaStringUtils;
 
-import javax.script.ScriptException;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.zip.InflaterInputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class ModExtractor {
     private static final String USER_RESOURCE_STRINGS_FILENAME = "resourceStrings.txt";
+    public static final int DEFAULT_STREAMING_THRESHOLD_MEGABYTES = 16;
+    private final int threads;
+    private FilenameRecovery filenameRecovery;
+    private NameDictionary nameDictionary;
+    private ParseResultCache parseResultCache;
+    private SubScriptCache subScriptCache;
+    private EntryFilter entryFilter;
+    private OutputFormat outputFormat = OutputFormat.DIRECTORY;
+    private ContentDeduplicator contentDeduplicator;
+    private int maxSnippetLength = ErrorCollector.DEFAULT_MAX_SNIPPET_LENGTH;
+    private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD_MEGABYTES * 1024L * 1024L;
+    private PrintStream log = System.out;
+    private ConcurrentMap<String, String> stringPool;
 
-    public static void main(String[] args) throws IOException, ScriptException {
-        if (args.length != 2) {
+    private interface EntryTask<T> {
+        T process(int entryIndex) throws IOException;
+    }
+
+    private static final class LuaParseResult {
+        private final Collection<String> resourceStrings;
+        private final ErrorCollector errorCollector;
+
+        private LuaParseResult(Collection<String> resourceStrings, ErrorCollector errorCollector) {
+            this.resourceStrings = resourceStrings;
+            this.errorCollector = errorCollector;
+        }
+    }
+
+    public ModExtractor() {
+        this(1);
+    }
+
+    public ModExtractor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required but " + threads + " were requested.");
+        }
+        this.threads = threads;
+    }
+
+    public void setFilenameRecovery(FilenameRecovery filenameRecovery) {
+        this.filenameRecovery = filenameRecovery;
+    }
+
+    public void setNameDictionary(NameDictionary nameDictionary) {
+        this.nameDictionary = nameDictionary;
+    }
+
+    public void setParseResultCache(ParseResultCache parseResultCache) {
+        this.parseResultCache = parseResultCache;
+    }
+
+    public void setSubScriptCache(SubScriptCache subScriptCache) {
+        this.subScriptCache = subScriptCache;
+    }
+
+    public void setContentDeduplicator(ContentDeduplicator contentDeduplicator) {
+        this.contentDeduplicator = contentDeduplicator;
+    }
+
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public void setEntryFilter(EntryFilter entryFilter) {
+        this.entryFilter = entryFilter;
+    }
+
+    public void setMaxSnippetLength(int maxSnippetLength) {
+        this.maxSnippetLength = maxSnippetLength;
+    }
+
+    public void setStreamingThreshold(long streamingThreshold) {
+        this.streamingThreshold = streamingThreshold;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void setStringPool(ConcurrentMap<String, String> stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    public static void main(String[] args) throws IOException {
+        CommandLine commandLine = new CommandLine(args);
+        List<String> arguments = commandLine.getArguments();
+        //every command reads entries with at most this many threads
+        ModFileReader.setMaxPooledEntryInflaters(commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount()));
+        if (!arguments.isEmpty() && arguments.get(0).equals(BatchExtractor.COMMAND)) {
+            BatchExtractor.run(commandLine);
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals(ModLister.COMMAND)) {
+            ModLister.run(commandLine);
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals(ModDiffer.COMMAND)) {
+            ModDiffer.run(commandLine);
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals(ModRepacker.COMMAND)) {
+            ModRepacker.run(commandLine);
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals(ModVerifier.COMMAND)) {
+            if (!ModVerifier.run(commandLine)) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (arguments.size() != 2) {
             System.err.println("Please pass a path to a mod file as first parameter and an output path as second parameter.");
+            System.err.println("To extract several mod files at once use: " + BatchExtractor.COMMAND + " <output path> <mod files or directories>");
+            System.err.println("To list the contents of mod files without extracting them use: " + ModLister.COMMAND + " <mod files or directories>");
+            System.err.println("To build a mod file from an extracted mod directory use: " + ModRepacker.COMMAND + " <mod directory> <target file>");
+            System.err.println("To compare two versions of a mod file use: " + ModDiffer.COMMAND + " <old mod file> <new mod file>");
+            System.err.println("To check mod files for corruption without extracting them use: " + ModVerifier.COMMAND + " <mod files or directories>");
             return;
         }
 
-        String sourcePath = args[0];
-        String targetPath = args[1];
+        String sourcePath = arguments.get(0);
+        String targetPath = arguments.get(1);
 
-        ModExtractor modExtractor = new ModExtractor();
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        ModExtractor modExtractor = create(commandLine, threads);
+        NameDictionary nameDictionary = openNameDictionary(commandLine);
+        modExtractor.setNameDictionary(nameDictionary);
+        ParseResultCache parseResultCache = openParseResultCache(commandLine);
+        modExtractor.setParseResultCache(parseResultCache);
+        ContentDeduplicator contentDeduplicator = createContentDeduplicator(commandLine);
+        modExtractor.setContentDeduplicator(contentDeduplicator);
         File modFilePath = new File(sourcePath);
         System.out.println("Reading mod file...");
-        ModStructure modStructure = modExtractor.readModStructure(new FileInputStream(modFilePath));
-        ModInfo modInfo = modStructure.getModInfo();
-        String modName = FileUtils.removeInvalidChars(modInfo.getDungeonName());
-        File targetPathWithModDir = new File(targetPath, modName);
-        Files.createDirectories(targetPathWithModDir.toPath());
+        try (ModFileReader modFileReader = new ModFileReader(modFilePath.toPath())) {
+            ModAnalysis modAnalysis = modExtractor.analyzeMod(modFilePath, modFileReader);
+            addFileSizes(modAnalysis, contentDeduplicator);
+            ResourceHashIndex resourceHashes = modExtractor.calculateResourceHashes(modAnalysis.getResourceStrings());
+            File targetPathWithModDir = new File(targetPath, getModDirectoryName(modAnalysis.getModStructure().getModInfo()));
+            modExtractor.extractMod(modAnalysis, modFileReader, resourceHashes, targetPathWithModDir);
+        }
+        saveNameDictionary(nameDictionary);
+        if (parseResultCache != null) {
+            parseResultCache.evict();
+        }
+        if (contentDeduplicator != null) {
+            System.out.println(contentDeduplicator.getReport());
+        }
+    }
+
+    static ModExtractor create(CommandLine commandLine, int threads) {
+        ModExtractor modExtractor = new ModExtractor(threads);
+        //guessed names are only verified by their 32 bit hash, so any name with the same hash is accepted and the search has to be requested
+        int recoverTime = commandLine.getIntOption("recover-time", 0);
+        if (recoverTime > 0) {
+            modExtractor.setFilenameRecovery(new FilenameRecovery(threads, recoverTime * 1000L,
+                    commandLine.getIntOption("recover-candidates", Integer.MAX_VALUE)));
+        }
+        modExtractor.setMaxSnippetLength(commandLine.getIntOption("max-snippet-length", ErrorCollector.DEFAULT_MAX_SNIPPET_LENGTH));
+        modExtractor.setOutputFormat(OutputFormat.fromOption(commandLine.getOption("format", "directory")));
+        String entryPatterns = commandLine.getOption("only", null);
+        if (entryPatterns != null) {
+            modExtractor.setEntryFilter(new EntryFilter(entryPatterns));
+        }
+        modExtractor.setStreamingThreshold(commandLine.getIntOption("streaming-threshold", DEFAULT_STREAMING_THRESHOLD_MEGABYTES) * 1024L * 1024L);
+        return modExtractor;
+    }
+
+    static NameDictionary openNameDictionary(CommandLine commandLine) throws IOException {
+        String dictionaryPath = commandLine.getOption("dictionary", null);
+        if (dictionaryPath == null) {
+            return null;
+        }
+        NameDictionary nameDictionary = NameDictionary.open(Path.of(dictionaryPath));
+        System.out.println("Loaded name dictionary with " + nameDictionary.size() + " names.");
+        return nameDictionary;
+    }
+
+    static ParseResultCache openParseResultCache(CommandLine commandLine) throws IOException {
+        String cacheDirectory = commandLine.getOption("parse-cache", null);
+        if (cacheDirectory == null) {
+            return null;
+        }
+        return new ParseResultCache(Path.of(cacheDirectory), commandLine.getIntOption("parse-cache-size", 256) * 1024L * 1024L);
+    }
+
+    static ContentDeduplicator createContentDeduplicator(CommandLine commandLine) {
+        return commandLine.hasOption("dedup") ? new ContentDeduplicator() : null;
+    }
+
+    //the sizes of all files that may be extracted have to be known before the first file is written
+    static void addFileSizes(ModAnalysis modAnalysis, ContentDeduplicator contentDeduplicator) {
+        if (contentDeduplicator != null) {
+            modAnalysis.getFiletypes().keySet().forEach(directoryEntry -> contentDeduplicator.addFileSize(directoryEntry.getUncompressedSize()));
+        }
+    }
 
-        File editorFile = new File(targetPathWithModDir, modName + ".dungeon_editor");
-        BufferedWriter editorFileWriter = new BufferedWriter(new FileWriter(editorFile));
-        modExtractor.writeEditorFile(modInfo, editorFileWriter);
-        System.out.println("Extracting files...");
-        List<File> extractedFiles = modExtractor.extractModFiles(modStructure.getDirectoryEntries(), new FileInputStream(modFilePath), targetPathWithModDir);
+    static void saveNameDictionary(NameDictionary nameDictionary) throws IOException {
+        if (nameDictionary != null && nameDictionary.hasAddedNames()) {
+            nameDictionary.save();
+            System.out.println("Saved name dictionary with " + nameDictionary.size() + " names.");
+        }
+    }
+
+    static String getModDirectoryName(ModInfo modInfo) {
+        return FileUtils.removeInvalidChars(modInfo.getDungeonName());
+    }
 
-        System.out.println("Parsing extracted files...");
+    public ModAnalysis analyzeMod(File modFilePath, ModFileReader modFileReader) throws IOException {
+        ModStructure modStructure = modFileReader.readModStructure();
+        ModInfo modInfo = modStructure.getModInfo();
+        List<DirectoryEntry> directoryEntries = modStructure.getDirectoryEntries();
         ErrorCollector errorCollector = new ErrorCollector();
-        Collection<String> resourceStrings = modExtractor.findResourceStrings(extractedFiles, errorCollector);
+        Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes;
+        Collection<String> resourceStrings;
+        if (entryFilter != null && !entryFilter.requiresResolvedNames()) {
+            //the filter only contains paths, so the selected entries already have a name and no Lua file has to be parsed
+            List<DirectoryEntry> selectedEntries = directoryEntries.stream().filter(entryFilter::matchesHash).collect(Collectors.toList());
+            filetypes = determineFiletypes(selectedEntries, modFileReader);
+            resourceStrings = new LinkedHashSet<>(entryFilter.getPaths());
+        } else {
+            log.println("Parsing Lua files...");
+            filetypes = determineFiletypes(directoryEntries, modFileReader);
+            resourceStrings = findResourceStrings(getLuaEntries(filetypes), modFileReader, errorCollector);
+        }
         resourceStrings.addAll(getMandatoryResourceStrings(modInfo.getDungeonFolder()));
-        Collection<String> userProvidedResourceStrings = getUserProvidedResourceStrings(modFilePath.getParentFile());
+        Collection<String> userProvidedResourceStrings = getUserProvidedResourceStrings(modFilePath.getAbsoluteFile().getParentFile());
         if (!userProvidedResourceStrings.isEmpty()) {
-            System.out.println("Picked up " + userProvidedResourceStrings.size() + " resource strings from " + USER_RESOURCE_STRINGS_FILENAME);
+            log.println("Picked up " + userProvidedResourceStrings.size() + " resource strings from " + USER_RESOURCE_STRINGS_FILENAME);
             resourceStrings.addAll(userProvidedResourceStrings);
         }
-        Map<String, String> resourceHashes = modExtractor.calculateResourceHashes(resourceStrings);
-        errorCollector.updateFilenames(resourceHashes);
-        errorCollector.getErrors().forEach(System.out::println);
+        return new ModAnalysis(modFilePath, modStructure, filetypes, resourceStrings, errorCollector);
+    }
 
-        System.out.println("Moving and renaming extracted files...");
-        modExtractor.moveFiles(extractedFiles, resourceHashes);
+    public ExtractionSummary extractMod(ModAnalysis modAnalysis, ModFileReader modFileReader, ResourceHashIndex resourceHashes, File targetPathWithModDir)
+            throws IOException {
+        ModInfo modInfo = modAnalysis.getModStructure().getModInfo();
+        try (OutputSink outputSink = outputFormat.createSink(targetPathWithModDir)) {
+            writeEditorFile(modInfo, outputSink);
+            return extractMod(modAnalysis, modFileReader, resourceHashes, outputSink);
+        }
     }
 
-    public ModStructure readModStructure(InputStream modFileInputStream) throws IOException {
-        try (modFileInputStream) {
-            byte[] headerBytes = modFileInputStream.readNBytes(FileHeader.LENGTH);
-            FileHeader fileHeader = new FileHeader(headerBytes);
-            if (!fileHeader.isValid()) {
-                throw new InvalidFileException("Passed file is not a Legend of Grimrock 2 mod.");
-            }
-            byte[] editorVersionInfoBytes = modFileInputStream.readNBytes(EditorVersionInfo.LENGTH);
-            EditorVersionInfo editorVersionInfo = new EditorVersionInfo(editorVersionInfoBytes);
-            byte[] modInfoEntryBytes = modFileInputStream.readNBytes(ModInfoEntry.LENGTH);
-            ModInfoEntry modInfoEntry = new ModInfoEntry(modInfoEntryBytes);
-            List<DirectoryEntry> directoryEntries = new ArrayList<>();
-            long directoryEnd = modInfoEntry.getPosition();
-            int bytesReadSoFar = FileHeader.LENGTH + EditorVersionInfo.LENGTH + ModInfoEntry.LENGTH;
-            for (int i = bytesReadSoFar; i < directoryEnd; i += DirectoryEntry.LENGTH) {
-                byte[] directoryEntryBytes = modFileInputStream.readNBytes(DirectoryEntry.LENGTH);
-                DirectoryEntry directoryEntry = new DirectoryEntry(directoryEntryBytes);
-                directoryEntries.add(directoryEntry);
-            }
-            long modInfoLength = modInfoEntry.getCompressedSize();
-            byte[] modInfoBytes = modFileInputStream.readNBytes((int)modInfoLength);
-            ModInfo modInfo = new ModInfo(modInfoBytes);
-            return new ModStructure(editorVersionInfo, directoryEntries, modInfo);
+    private ExtractionSummary extractMod(ModAnalysis modAnalysis, ModFileReader modFileReader, ResourceHashIndex resourceHashes, OutputSink outputSink)
+            throws IOException {
+        //names recovered for this mod are kept separate so that a shared lookup table is never modified
+        ResourceHashIndex modResourceHashes = new ResourceHashIndex(resourceHashes);
+        lookUpNameDictionary(modAnalysis.getFiletypes(), modResourceHashes);
+        Set<Integer> recoveredHashes = recoverFilenames(modAnalysis.getFiletypes(), modAnalysis.getResourceStrings(), modResourceHashes);
+        Collection<String> errors = modAnalysis.getErrorCollector().getErrors(modResourceHashes, maxSnippetLength,
+                filename -> readLuaSource(modAnalysis, modFileReader, filename));
+        errors.forEach(log::println);
+
+        List<DirectoryEntry> directoryEntries = new ArrayList<>(modAnalysis.getFiletypes().keySet());
+        if (entryFilter != null) {
+            directoryEntries = entryFilter.select(directoryEntries, modResourceHashes);
+            log.println("Selected " + directoryEntries.size() + " of " + modAnalysis.getModStructure().getDirectoryEntries().size() + " files");
         }
+        log.println("Extracting files...");
+        String editorFilename = getEditorFilename(modAnalysis.getModStructure().getModInfo());
+        extractModFiles(directoryEntries, modFileReader, outputSink, modResourceHashes, editorFilename);
+        int unresolvedFileCount = (int)directoryEntries.stream().filter(entry -> !modResourceHashes.contains((int)entry.getFnv1aHash())).count();
+        addToNameDictionary(directoryEntries, modResourceHashes, recoveredHashes);
+        return new ExtractionSummary(modAnalysis.getModFilePath(), modAnalysis.getModStructure().getModInfo().getDungeonName(), directoryEntries.size(),
+                unresolvedFileCount, errors.size());
     }
 
-    private void writeEditorFile(ModInfo modInfo, BufferedWriter writer) throws IOException, ScriptException {
-        try (writer) {
+    private void writeEditorFile(ModInfo modInfo, OutputSink outputSink) throws IOException {
+        StringWriter editorFileContent = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(editorFileContent)) {
             writer.write("-- This file has been generated by Grimrock Mod Extractor from a mod with UUID " + modInfo.getUuid());
             writer.newLine();
             writer.newLine();
-            writer.write("dungeonName \"" + modInfo.getDungeonName() + "\"");
+            //all values are escaped, so that the file stays valid Lua and the repack command reads back exactly the same mod info
+            writer.write("dungeonName " + LuaStringUtils.escapeForLua(modInfo.getDungeonName()));
             writer.newLine();
-            writer.write("author \"" + modInfo.getAuthor() + "\"");
+            writer.write("author " + LuaStringUtils.escapeForLua(modInfo.getAuthor()));
             writer.newLine();
-            String descriptionEscaped = LuaUtils.escapeForLua(modInfo.getDescription());
-            writer.write("description " + descriptionEscaped);
+            writer.write("description " + LuaStringUtils.escapeForLua(modInfo.getDescription()));
             writer.newLine();
-            writer.write("dungeonFolder \"" + modInfo.getDungeonFolder() + "\"");
+            writer.write("dungeonFolder " + LuaStringUtils.escapeForLua(modInfo.getDungeonFolder()));
             writer.newLine();
         }
+        //encoded like the FileWriter that used to write this file did
+        byte[] editorFileBytes = editorFileContent.toString().getBytes(Charset.defaultCharset());
+        outputSink.writeFile(getEditorFilename(modInfo), editorFileBytes.length, channel -> {
+            ByteBuffer editorFileBuffer = ByteBuffer.wrap(editorFileBytes);
+            while (editorFileBuffer.hasRemaining()) {
+                channel.write(editorFileBuffer);
+            }
+        });
     }
 
-    private List<File> extractModFiles(List<DirectoryEntry> directoryEntries, InputStream modFileInputStream, File targetPath) throws IOException {
-        try (modFileInputStream) {
-            List<File> extractedFiles = new ArrayList<>();
-            Optional<DirectoryEntry> firstDirectoryEntry = directoryEntries.stream().findFirst();
-            if (firstDirectoryEntry.isPresent()) {
-                IOUtils.skipFully(modFileInputStream, firstDirectoryEntry.get().getPosition());
-            }
-            for (DirectoryEntry directoryEntry : directoryEntries) {
-                byte[] compressedFileBytes = modFileInputStream.readNBytes((int)directoryEntry.getCompressedSize());
-                String fnv1aHashHex = Long.toHexString(directoryEntry.getFnv1aHash());
-                File targetFile = new File(targetPath, fnv1aHashHex + ".tmp");
-                try (InputStream inflaterInputStream = new InflaterInputStream(new ByteArrayInputStream(compressedFileBytes));
-                     OutputStream fileOutputStream = new FileOutputStream(targetFile)) {
-                    inflaterInputStream.transferTo(fileOutputStream);
+    //the snippets of errors are taken from the Lua file again when they are printed, so that it does not have to be kept until then
+    private static String readLuaSource(ModAnalysis modAnalysis, ModFileReader modFileReader, String filename) throws IOException {
+        for (DirectoryEntry luaEntry : getLuaEntries(modAnalysis.getFiletypes())) {
+            if (getTemporaryFilename(luaEntry).equals(filename)) {
+                try (InputStream entryInputStream = modFileReader.openEntryStream(luaEntry)) {
+                    return LuaResourceParser.readScript(entryInputStream);
                 }
-                extractedFiles.add(targetFile);
             }
-            return extractedFiles;
         }
+        return null;
+    }
+
+    private Map<DirectoryEntry, Optional<FileUtils.Filetype>> determineFiletypes(List<DirectoryEntry> directoryEntries, ModFileReader modFileReader)
+            throws IOException {
+        Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes = new LinkedHashMap<>();
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            byte[] magicNumberBytes = modFileReader.readEntryStart(directoryEntry, FileUtils.MAGIC_NUMBER_LENGTH);
+            filetypes.put(directoryEntry, FileUtils.determineFiletype(magicNumberBytes));
+        }
+        return filetypes;
+    }
+
+    static List<DirectoryEntry> getLuaEntries(Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes) {
+        List<DirectoryEntry> luaEntries = new ArrayList<>();
+        filetypes.forEach((directoryEntry, filetype) -> {
+            if (filetype.isEmpty()) {
+                luaEntries.add(directoryEntry);
+            }
+        });
+        return luaEntries;
     }
 
-    private Collection<String> findResourceStrings(List<File> extractedFiles, ErrorCollector errorCollector) throws IOException {
-        LuaResourceParser luaResourceParser = new LuaResourceParser();
+    private Collection<String> findResourceStrings(List<DirectoryEntry> luaEntries, ModFileReader modFileReader, ErrorCollector errorCollector)
+            throws IOException {
+        if (luaEntries.isEmpty()) {
+            return new LinkedHashSet<>();
+        }
+        //the LuaJ parser classes are only loaded when there is actually something to parse. Without a cache for the whole run, embedded
+        //scripts are cached for this mod only.
+        LuaResourceParser luaResourceParser = new LuaResourceParser(subScriptCache != null ? subScriptCache : new SubScriptCache());
+        List<LuaParseResult> luaParseResults = processEntries(luaEntries, entryIndex -> {
+            DirectoryEntry luaEntry = luaEntries.get(entryIndex);
+            ErrorCollector fileErrorCollector = new ErrorCollector(getTemporaryFilename(luaEntry));
+            Collection<String> fileResourceStrings = findFileResourceStrings(luaEntry, modFileReader, luaResourceParser, fileErrorCollector);
+            return new LuaParseResult(fileResourceStrings, fileErrorCollector);
+        });
         Collection<String> resourceStrings = new LinkedHashSet<>();
-        for (File extractedFile : extractedFiles) {
-            Optional<FileUtils.Filetype> filetype = FileUtils.determineFiletype(extractedFile);
-            if (filetype.isPresent()) {
-                continue;
+        for (LuaParseResult luaParseResult : luaParseResults) {
+            errorCollector.addAllErrors(luaParseResult.errorCollector);
+            for (String resourceString : luaParseResult.resourceStrings) {
+                resourceStrings.add(stringPool == null ? resourceString : stringPool.computeIfAbsent(resourceString, Function.identity()));
             }
-            ErrorCollector fileErrorCollector = new ErrorCollector(extractedFile.getName());
-            Collection<String> fileResourceStrings = luaResourceParser.findResourceStrings(new FileInputStream(extractedFile), fileErrorCollector);
-            errorCollector.addAllErrors(fileErrorCollector);
-            resourceStrings.addAll(fileResourceStrings);
         }
         return resourceStrings;
     }
 
+    private Collection<String> findFileResourceStrings(DirectoryEntry luaEntry, ModFileReader modFileReader, LuaResourceParser luaResourceParser,
+                                                       ErrorCollector fileErrorCollector) throws IOException {
+        boolean streaming = luaEntry.getUncompressedSize() > streamingThreshold;
+        ParseResultCache.Key cacheKey = null;
+        byte[] luaBytes = null;
+        if (!streaming) {
+            luaBytes = modFileReader.readEntry(luaEntry);
+        }
+        if (parseResultCache != null) {
+            if (streaming) {
+                //huge scripts are rather inflated twice than kept in memory
+                try (InputStream entryInputStream = modFileReader.openEntryStream(luaEntry)) {
+                    cacheKey = ParseResultCache.createKey(entryInputStream, true);
+                }
+            } else {
+                cacheKey = ParseResultCache.createKey(luaBytes, false);
+            }
+            Collection<String> cachedResourceStrings = parseResultCache.get(cacheKey, fileErrorCollector);
+            if (cachedResourceStrings != null) {
+                return cachedResourceStrings;
+            }
+        }
+        Collection<String> fileResourceStrings;
+        try (InputStream entryInputStream = luaBytes != null ? new ByteArrayInputStream(luaBytes) : modFileReader.openEntryStream(luaEntry)) {
+            if (streaming) {
+                //huge scripts (usually the dungeon.lua of big mods) are scanned while they are inflated, so they are never completely in memory
+                fileResourceStrings = luaResourceParser.scanResourceStrings(entryInputStream, fileErrorCollector);
+            } else {
+                fileResourceStrings = luaResourceParser.findResourceStrings(entryInputStream, fileErrorCollector);
+            }
+        }
+        if (parseResultCache != null) {
+            try {
+                parseResultCache.put(cacheKey, fileResourceStrings, fileErrorCollector);
+            } catch (IOException e) {
+                //the cache only saves time, a full or read-only cache directory must not stop the extraction
+                log.println("Could not write parse result to cache: " + e);
+            }
+        }
+        return fileResourceStrings;
+    }
+
     private static Collection<String> getMandatoryResourceStrings(String dungeonFolder) {
         return List.of(dungeonFolder + "/dungeon.lua", dungeonFolder + "/init.lua");
     }
@@ -172,30 +452,184 @@ public class ModExtractor {
         return Files.readAllLines(userResourceStringsFile.toPath());
     }
 
-    private Map<String, String> calculateResourceHashes(Collection<String> resourceStrings) {
-        Map<String, String> resourceHashes = new LinkedHashMap<>();
+    ResourceHashIndex calculateResourceHashes(Collection<String> resourceStrings) {
+        ResourceHashIndex resourceHashes = new ResourceHashIndex(resourceStrings.size());
         for (String resourceString : resourceStrings) {
-            String resourceStringHash = ByteUtils.calculateFnv1aHash(resourceString);
-            resourceHashes.put(resourceStringHash, resourceString);
+            resourceHashes.add(resourceString);
         }
         return resourceHashes;
     }
 
-    private void moveFiles(List<File> extractedFiles, Map<String, String> resourceHashes) {
-        for (File extractedFile : extractedFiles) {
-            String filename = FileUtils.getFilenameWithoutExtension(extractedFile);
-            String correctFilename = resourceHashes.get(filename);
+    private void lookUpNameDictionary(Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes, ResourceHashIndex resourceHashes) {
+        if (nameDictionary == null) {
+            return;
+        }
+        int foundNameCount = 0;
+        for (DirectoryEntry directoryEntry : filetypes.keySet()) {
+            int fnv1aHash = (int)directoryEntry.getFnv1aHash();
+            if (!resourceHashes.contains(fnv1aHash)) {
+                String dictionaryName = nameDictionary.get(fnv1aHash);
+                if (dictionaryName != null) {
+                    resourceHashes.put(fnv1aHash, dictionaryName);
+                    foundNameCount++;
+                }
+            }
+        }
+        if (foundNameCount > 0) {
+            log.println("Resolved " + foundNameCount + " filenames from the name dictionary");
+        }
+    }
+
+    //only names of files that actually exist in the mod are kept, the other resource strings are mostly paths of the base game. Recovered names
+    //are guesses that may be wrong, they would resolve the hash in every later run if they were kept.
+    private void addToNameDictionary(List<DirectoryEntry> directoryEntries, ResourceHashIndex resourceHashes, Set<Integer> recoveredHashes) {
+        if (nameDictionary == null) {
+            return;
+        }
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            int fnv1aHash = (int)directoryEntry.getFnv1aHash();
+            String resolvedName = resourceHashes.get(fnv1aHash);
+            if (resolvedName != null && !recoveredHashes.contains(fnv1aHash)) {
+                nameDictionary.add(resolvedName);
+            }
+        }
+    }
+
+    //returns the hashes whose names have been recovered
+    private Set<Integer> recoverFilenames(Map<DirectoryEntry, Optional<FileUtils.Filetype>> filetypes, Collection<String> knownNames,
+                                          ResourceHashIndex resourceHashes) throws IOException {
+        Set<Integer> recoveredHashes = new HashSet<>();
+        if (filenameRecovery == null) {
+            return recoveredHashes;
+        }
+        Map<Integer, Optional<FileUtils.Filetype>> unresolvedHashes = new LinkedHashMap<>();
+        filetypes.forEach((directoryEntry, filetype) -> {
+            int fnv1aHash = (int)directoryEntry.getFnv1aHash();
+            if (!resourceHashes.contains(fnv1aHash)) {
+                unresolvedHashes.put(fnv1aHash, filetype);
+            }
+        });
+        if (unresolvedHashes.isEmpty()) {
+            return recoveredHashes;
+        }
+        log.println("Searching filenames for " + unresolvedHashes.size() + " unresolved files...");
+        ResourceHashIndex recoveredNames = filenameRecovery.recover(unresolvedHashes, knownNames);
+        for (int fnv1aHash : unresolvedHashes.keySet()) {
+            String recoveredName = recoveredNames.get(fnv1aHash);
+            if (recoveredName != null) {
+                log.println("Guessed filename " + recoveredName + " for " + Integer.toHexString(fnv1aHash)
+                        + ".tmp, the name only has the same hash and may be wrong");
+                resourceHashes.put(fnv1aHash, recoveredName);
+                recoveredHashes.add(fnv1aHash);
+            }
+        }
+        return recoveredHashes;
+    }
+
+    private void extractModFiles(List<DirectoryEntry> directoryEntries, ModFileReader modFileReader, OutputSink outputSink,
+                                 ResourceHashIndex resourceHashes, String editorFilename) throws IOException {
+        OutputPlanner outputPlanner = new OutputPlanner(outputSink.ignoresCase());
+        outputPlanner.plan(editorFilename);
+        //null for entries that are skipped
+        List<String> targetPaths = new ArrayList<>();
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            String correctFilename = resourceHashes.get((int)directoryEntry.getFnv1aHash());
+            String temporaryFilename = getTemporaryFilename(directoryEntry);
             if (correctFilename == null) {
-                System.out.println("Could not determine correct filename for " + extractedFile);
-                continue;
+                log.println("Could not determine correct filename for " + outputSink.getLocation(temporaryFilename));
+            } else if (!OutputPlanner.isSafePath(correctFilename)) {
+                //names are strings from the Lua files of the mod, the name dictionary or the command line, e.g. ../x would be outside of the mod
+                log.println("Filename " + correctFilename + " is not a path inside of the mod directory, writing it to "
+                        + outputSink.getLocation(temporaryFilename) + " instead");
+            } else {
+                String collidingPath = outputPlanner.plan(correctFilename);
+                if (collidingPath == null) {
+                    targetPaths.add(correctFilename);
+                    continue;
+                }
+                //the file would overwrite another one (or fail), so it keeps its temporary name instead
+                log.println("Filename " + correctFilename + " collides with " + collidingPath + ", writing it to "
+                        + outputSink.getLocation(temporaryFilename) + " instead");
             }
-            Path correctPath = Path.of(extractedFile.getParent(), correctFilename);
-            try {
-                Files.createDirectories(correctPath.getParent());
-                Files.move(extractedFile.toPath(), correctPath, StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                System.err.println("Move from " + extractedFile + " to " + correctPath + " was not successful.");
+            String collidingPath = outputPlanner.plan(temporaryFilename);
+            if (collidingPath == null) {
+                targetPaths.add(temporaryFilename);
+            } else {
+                //e.g. two entries with the same hash, both files would be written to the same path at the same time
+                log.println("Filename " + temporaryFilename + " collides with " + collidingPath + ", skipping the file");
+                targetPaths.add(null);
             }
         }
+        outputSink.prepare(targetPaths.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+        if (!outputSink.supportsConcurrentWrites()) {
+            //archives are written in one sequential pass in the order of the directory
+            for (int i = 0; i < directoryEntries.size(); i++) {
+                if (targetPaths.get(i) != null) {
+                    extractModFile(directoryEntries.get(i), modFileReader, outputSink, targetPaths.get(i));
+                }
+            }
+            return;
+        }
+        processEntries(directoryEntries, entryIndex -> {
+            if (targetPaths.get(entryIndex) != null) {
+                extractModFile(directoryEntries.get(entryIndex), modFileReader, outputSink, targetPaths.get(entryIndex));
+            }
+            return null;
+        });
+    }
+
+    //runs the task for every entry on the worker pool and returns the results in the order of the passed entries
+    private <T> List<T> processEntries(List<DirectoryEntry> directoryEntries, EntryTask<T> entryTask) throws IOException {
+        List<T> results = new ArrayList<>();
+        if (threads == 1) {
+            for (int i = 0; i < directoryEntries.size(); i++) {
+                results.add(entryTask.process(i));
+            }
+            return results;
+        }
+        //start with the largest entries so that a big entry at the end does not leave all other workers idle
+        List<Integer> entryIndicesBySize = new ArrayList<>();
+        for (int i = 0; i < directoryEntries.size(); i++) {
+            entryIndicesBySize.add(i);
+        }
+        entryIndicesBySize.sort(Comparator.comparing((Integer i) -> directoryEntries.get(i).getUncompressedSize())
+                .thenComparing(i -> directoryEntries.get(i).getCompressedSize()).reversed());
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futureResults = new ArrayList<>(Collections.nCopies(directoryEntries.size(), null));
+            for (int entryIndex : entryIndicesBySize) {
+                futureResults.set(entryIndex, executorService.submit(() -> entryTask.process(entryIndex)));
+            }
+            for (Future<T> futureResult : futureResults) {
+                results.add(ConcurrencyUtils.awaitResult(futureResult));
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void extractModFile(DirectoryEntry directoryEntry, ModFileReader modFileReader, OutputSink outputSink, String targetPath)
+            throws IOException {
+        OutputSink.FileContent fileContent = channel -> modFileReader.inflateEntry(directoryEntry, channel);
+        long size = directoryEntry.getUncompressedSize();
+        if (contentDeduplicator == null || outputSink.getLinkScope() == null || !contentDeduplicator.isCandidate(size)) {
+            outputSink.writeFile(targetPath, size, fileContent);
+            return;
+        }
+        //the entry is inflated once more to hash it, which is still cheaper than writing a duplicate
+        ContentDeduplicator.ContentKey contentKey = ContentDeduplicator.createKey(size, fileContent);
+        String linkedLocation = contentDeduplicator.writeFile(contentKey, outputSink, targetPath, fileContent);
+        if (linkedLocation != null) {
+            log.println("Linked " + outputSink.getLocation(targetPath) + " to identical file " + linkedLocation);
+        }
+    }
+
+    private static String getEditorFilename(ModInfo modInfo) {
+        return getModDirectoryName(modInfo) + ".dungeon_editor";
+    }
+
+    private static String getTemporaryFilename(DirectoryEntry directoryEntry) {
+        return Long.toHexString(directoryEntry.getFnv1aHash()) + ".tmp";
     }
 }
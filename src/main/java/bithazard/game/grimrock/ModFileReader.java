@@ -0,0 +1,331 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.model.EditorVersionInfo;
+import bithazard.game.grimrock.model.FileHeader;
+import bithazard.game.grimrock.model.ModInfo;
+import bithazard.game.grimrock.model.ModInfoEntry;
+import bithazard.game.grimrock.model.ModStructure;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+public class ModFileReader implements Closeable {
+    private static final int MOD_INFO_ENTRY_POSITION = FileHeader.LENGTH + EditorVersionInfo.LENGTH;
+    private static final int DIRECTORY_POSITION = MOD_INFO_ENTRY_POSITION + ModInfoEntry.LENGTH;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int OUTPUT_BUFFER_LENGTH = 65536;
+    //the file is mapped in windows, so that neither files nor entries are limited to the 2 GB a single mapping can hold
+    private static final long WINDOW_LENGTH = 1L << 30;
+    //windows overlap by this length, so that every region up to this length lies completely inside of one window
+    private static final int WINDOW_OVERLAP = 64 << 20;
+    //inflaters are expensive native objects, so they are reused by all readers instead of creating one per entry. The pool keeps at most
+    //one inflater per thread, inflaters returned beyond that are ended.
+    private static final Queue<EntryInflater> ENTRY_INFLATER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED_ENTRY_INFLATER_COUNT = new AtomicInteger();
+    private static volatile int maxPooledEntryInflaters = ConcurrencyUtils.getDefaultThreadCount();
+    private final FileChannel fileChannel;
+    private final long size;
+    private final MappedByteBuffer[] windows;
+
+    private static final class EntryInflater {
+        private final Inflater inflater = new Inflater();
+        private final ByteBuffer outputBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_LENGTH);
+        private ModFileReader modFileReader;
+        private long inputPosition;
+        private long inputEnd;
+
+        private static EntryInflater acquire(ModFileReader modFileReader, DirectoryEntry directoryEntry) {
+            modFileReader.checkRegion(directoryEntry.getPosition(), directoryEntry.getCompressedSize());
+            EntryInflater entryInflater = ENTRY_INFLATER_POOL.poll();
+            if (entryInflater == null) {
+                entryInflater = new EntryInflater();
+            } else {
+                POOLED_ENTRY_INFLATER_COUNT.decrementAndGet();
+            }
+            entryInflater.modFileReader = modFileReader;
+            entryInflater.inputPosition = directoryEntry.getPosition();
+            entryInflater.inputEnd = directoryEntry.getPosition() + directoryEntry.getCompressedSize();
+            return entryInflater;
+        }
+
+        private void release() {
+            modFileReader = null;
+            if (POOLED_ENTRY_INFLATER_COUNT.incrementAndGet() > maxPooledEntryInflaters) {
+                POOLED_ENTRY_INFLATER_COUNT.decrementAndGet();
+                //the direct output buffer is freed by the garbage collector
+                inflater.end();
+                return;
+            }
+            inflater.reset();
+            outputBuffer.clear();
+            ENTRY_INFLATER_POOL.add(this);
+        }
+
+        //returns false when the entry is completely inflated
+        private boolean inflate(ByteBuffer output) throws IOException {
+            if (inflater.finished()) {
+                return false;
+            }
+            if (inflater.needsInput() && inputPosition < inputEnd) {
+                //compressed data is passed on one window at a time, so entries of any size are inflated in constant memory
+                int inputLength = (int)Math.min(WINDOW_OVERLAP, inputEnd - inputPosition);
+                inflater.setInput(modFileReader.slice(inputPosition, inputLength));
+                inputPosition += inputLength;
+            }
+            try {
+                int inflatedLength = inflater.inflate(output);
+                boolean inputExhausted = inflater.needsInput() && inputPosition == inputEnd;
+                if (inflater.needsDictionary() || inflatedLength == 0 && !inflater.finished() && inputExhausted) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            return true;
+        }
+    }
+
+    //should be the number of threads that read entries at the same time
+    public static void setMaxPooledEntryInflaters(int maxPooledEntryInflaters) {
+        ModFileReader.maxPooledEntryInflaters = maxPooledEntryInflaters;
+    }
+
+    public ModFileReader(Path modFilePath) throws IOException {
+        fileChannel = FileChannel.open(modFilePath, StandardOpenOption.READ);
+        try {
+            size = fileChannel.size();
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+        windows = new MappedByteBuffer[Math.toIntExact(size / WINDOW_LENGTH + 1)];
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public FileHeader getFileHeader() {
+        return new FileHeader(readBytes(0, FileHeader.LENGTH));
+    }
+
+    public EditorVersionInfo getEditorVersionInfo() {
+        return new EditorVersionInfo(readBytes(FileHeader.LENGTH, EditorVersionInfo.LENGTH));
+    }
+
+    public ModInfoEntry getModInfoEntry() {
+        return new ModInfoEntry(readBytes(MOD_INFO_ENTRY_POSITION, ModInfoEntry.LENGTH));
+    }
+
+    public List<DirectoryEntry> getDirectoryEntries(ModInfoEntry modInfoEntry) {
+        List<DirectoryEntry> directoryEntries = new ArrayList<>();
+        long directoryEnd = modInfoEntry.getPosition();
+        for (long i = DIRECTORY_POSITION; i < directoryEnd; i += DirectoryEntry.LENGTH) {
+            directoryEntries.add(new DirectoryEntry(readBytes(i, DirectoryEntry.LENGTH)));
+        }
+        return directoryEntries;
+    }
+
+    public ModInfo getModInfo(ModInfoEntry modInfoEntry) {
+        return new ModInfo(readBytes(modInfoEntry.getPosition(), modInfoEntry.getCompressedSize()));
+    }
+
+    public ModStructure readModStructure() {
+        if (getSize() < DIRECTORY_POSITION || !getFileHeader().isValid()) {
+            throw new InvalidFileException("Passed file is not a Legend of Grimrock 2 mod.");
+        }
+        EditorVersionInfo editorVersionInfo = getEditorVersionInfo();
+        ModInfoEntry modInfoEntry = getModInfoEntry();
+        List<DirectoryEntry> directoryEntries = getDirectoryEntries(modInfoEntry);
+        ModInfo modInfo = getModInfo(modInfoEntry);
+        return new ModStructure(editorVersionInfo, directoryEntries, modInfo);
+    }
+
+    public InputStream openEntryStream(DirectoryEntry directoryEntry) {
+        EntryInflater entryInflater = EntryInflater.acquire(this, directoryEntry);
+        return new InputStream() {
+            private boolean closed;
+            private boolean released;
+
+            @Override
+            public int read() throws IOException {
+                byte[] singleByte = new byte[1];
+                return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (released) {
+                    return -1;
+                }
+                if (length == 0) {
+                    return 0;
+                }
+                ByteBuffer output = ByteBuffer.wrap(bytes, offset, length);
+                while (output.position() == offset) {
+                    if (!entryInflater.inflate(output)) {
+                        //a stream that is read to its end but never closed returns the inflater as well
+                        release();
+                        return -1;
+                    }
+                }
+                return output.position() - offset;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                release();
+            }
+
+            private void release() {
+                if (!released) {
+                    released = true;
+                    entryInflater.release();
+                }
+            }
+        };
+    }
+
+    //inflates the whole entry into an array of the uncompressed size stored in the directory
+    public byte[] readEntry(DirectoryEntry directoryEntry) throws IOException {
+        if (directoryEntry.getUncompressedSize() > MAX_ARRAY_LENGTH) {
+            throw new InvalidFileException(String.format("Entry %08x is too large to be read into memory.", directoryEntry.getFnv1aHash()));
+        }
+        ByteBuffer output = ByteBuffer.allocate((int)directoryEntry.getUncompressedSize());
+        EntryInflater entryInflater = EntryInflater.acquire(this, directoryEntry);
+        try {
+            while (entryInflater.inflate(output)) {
+                if (!output.hasRemaining() && !entryInflater.inflater.finished()) {
+                    //the directory understates the size, which the editor never does, but the content is still kept
+                    ByteBuffer largerOutput = ByteBuffer.allocate((int)Math.min(MAX_ARRAY_LENGTH, output.capacity() * 2L + OUTPUT_BUFFER_LENGTH));
+                    largerOutput.put(output.flip());
+                    output = largerOutput;
+                }
+            }
+        } finally {
+            entryInflater.release();
+        }
+        return output.position() == output.capacity() ? output.array() : Arrays.copyOf(output.array(), output.position());
+    }
+
+    //inflates at most the given number of bytes from the start of the entry
+    public byte[] readEntryStart(DirectoryEntry directoryEntry, int length) throws IOException {
+        ByteBuffer output = ByteBuffer.allocate(length);
+        EntryInflater entryInflater = EntryInflater.acquire(this, directoryEntry);
+        try {
+            while (output.hasRemaining() && entryInflater.inflate(output)) {
+                //inflate until the output is full or the entry ends
+            }
+        } finally {
+            entryInflater.release();
+        }
+        return output.position() == length ? output.array() : Arrays.copyOf(output.array(), output.position());
+    }
+
+    //inflates the entry from the mapped file straight into the channel and returns the number of inflated bytes
+    public long inflateEntry(DirectoryEntry directoryEntry, WritableByteChannel channel) throws IOException {
+        long inflatedSize = 0;
+        EntryInflater entryInflater = EntryInflater.acquire(this, directoryEntry);
+        try {
+            ByteBuffer outputBuffer = entryInflater.outputBuffer;
+            while (entryInflater.inflate(outputBuffer)) {
+                outputBuffer.flip();
+                inflatedSize += outputBuffer.remaining();
+                while (outputBuffer.hasRemaining()) {
+                    channel.write(outputBuffer);
+                }
+                outputBuffer.clear();
+            }
+        } finally {
+            entryInflater.release();
+        }
+        return inflatedSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    private byte[] readBytes(long position, long length) {
+        ByteBuffer slice = slice(position, length);
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    //compares the compressed data of two entries, which is much cheaper than inflating them. Equal data means equal content, different data can
+    //still have the same content if it was compressed differently.
+    public boolean hasEqualCompressedData(DirectoryEntry directoryEntry, ModFileReader otherModFileReader, DirectoryEntry otherDirectoryEntry) {
+        long length = directoryEntry.getCompressedSize();
+        if (length != otherDirectoryEntry.getCompressedSize()) {
+            return false;
+        }
+        for (long offset = 0; offset < length; offset += WINDOW_OVERLAP) {
+            int sliceLength = (int)Math.min(WINDOW_OVERLAP, length - offset);
+            ByteBuffer slice = slice(directoryEntry.getPosition() + offset, sliceLength);
+            if (!slice.equals(otherModFileReader.slice(otherDirectoryEntry.getPosition() + offset, sliceLength))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkRegion(long position, long length) {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new InvalidFileException("Region at position " + position + " with length " + length + " exceeds the mod file size of " + size
+                    + " bytes.");
+        }
+    }
+
+    private ByteBuffer slice(long position, long length) {
+        checkRegion(position, length);
+        if (length > WINDOW_OVERLAP) {
+            throw new InvalidFileException("Region at position " + position + " with length " + length + " is too large to be read at once.");
+        }
+        int windowIndex = (int)(position / WINDOW_LENGTH);
+        int windowPosition = Math.toIntExact(position - windowIndex * WINDOW_LENGTH);
+        ByteBuffer slice = getWindow(windowIndex).duplicate();
+        slice.position(windowPosition);
+        slice.limit(windowPosition + (int)length);
+        return slice.slice();
+    }
+
+    //windows are only mapped when they are needed
+    private synchronized MappedByteBuffer getWindow(int windowIndex) {
+        if (windows[windowIndex] == null) {
+            long windowStart = windowIndex * WINDOW_LENGTH;
+            try {
+                windows[windowIndex] = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(WINDOW_LENGTH + WINDOW_OVERLAP, size - windowStart));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return windows[windowIndex];
+    }
+}
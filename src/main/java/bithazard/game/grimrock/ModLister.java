@@ -0,0 +1,122 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.model.ModInfo;
+import bithazard.game.grimrock.model.ModStructure;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+import bithazard.game.grimrock.utils.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Writes an index of mod files as JSON lines, one object per mod. Only the header, the directory and the mod info of every mod are read, no
+//file in a mod is decompressed.
+public class ModLister {
+    public static final String COMMAND = "list";
+    private final int threads;
+    private final boolean includeEntries;
+
+    public ModLister(int threads, boolean includeEntries) {
+        this.threads = threads;
+        this.includeEntries = includeEntries;
+    }
+
+    public static void run(CommandLine commandLine) throws IOException {
+        List<String> arguments = commandLine.getArguments();
+        if (arguments.size() < 2) {
+            System.err.println("Please pass at least one mod file or directory containing mod files: " + COMMAND + " <mod files or directories>");
+            return;
+        }
+        List<File> modFilePaths = BatchExtractor.findModFiles(arguments.subList(1, arguments.size()));
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        ModLister modLister = new ModLister(threads, !commandLine.hasOption("no-entries"));
+        String outputPath = commandLine.getOption("output", null);
+        if (outputPath == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            modLister.list(modFilePaths, writer);
+            writer.flush();
+        } else {
+            try (Writer writer = Files.newBufferedWriter(Path.of(outputPath), StandardCharsets.UTF_8)) {
+                modLister.list(modFilePaths, writer);
+            }
+        }
+    }
+
+    public void list(List<File> modFilePaths, Writer writer) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            //the lines are written in the order of the mod files, only a limited number of mods is read ahead to bound the memory usage
+            Deque<Future<String>> pendingLines = new ArrayDeque<>();
+            int maxPendingLines = threads * 16;
+            for (File modFilePath : modFilePaths) {
+                pendingLines.add(executorService.submit(() -> createIndexLine(modFilePath)));
+                if (pendingLines.size() >= maxPendingLines) {
+                    writeLine(writer, ConcurrencyUtils.awaitResult(pendingLines.remove()));
+                }
+            }
+            while (!pendingLines.isEmpty()) {
+                writeLine(writer, ConcurrencyUtils.awaitResult(pendingLines.remove()));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private String createIndexLine(File modFilePath) {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"file\":").append(JsonUtils.quote(modFilePath.getPath()));
+        ModStructure modStructure;
+        try (ModFileReader modFileReader = new ModFileReader(modFilePath.toPath())) {
+            modStructure = modFileReader.readModStructure();
+        } catch (IOException | RuntimeException e) {
+            return line.append(",\"error\":").append(JsonUtils.quote(String.valueOf(e.getMessage()))).append('}').toString();
+        }
+        ModInfo modInfo = modStructure.getModInfo();
+        List<DirectoryEntry> directoryEntries = modStructure.getDirectoryEntries();
+        long compressedSize = 0;
+        long uncompressedSize = 0;
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            compressedSize += directoryEntry.getCompressedSize();
+            uncompressedSize += directoryEntry.getUncompressedSize();
+        }
+        line.append(",\"uuid\":").append(JsonUtils.quote(modInfo.getUuid()));
+        line.append(",\"name\":").append(JsonUtils.quote(modInfo.getDungeonName()));
+        line.append(",\"author\":").append(JsonUtils.quote(modInfo.getAuthor()));
+        line.append(",\"editorVersion\":").append(modStructure.getEditorVersionInfo().getVersionNumber());
+        line.append(",\"entryCount\":").append(directoryEntries.size());
+        line.append(",\"compressedSize\":").append(compressedSize);
+        line.append(",\"uncompressedSize\":").append(uncompressedSize);
+        if (includeEntries) {
+            line.append(",\"entries\":[");
+            for (int i = 0; i < directoryEntries.size(); i++) {
+                DirectoryEntry directoryEntry = directoryEntries.get(i);
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append("{\"hash\":\"").append(String.format("%08x", directoryEntry.getFnv1aHash()))
+                        .append("\",\"offset\":").append(directoryEntry.getPosition())
+                        .append(",\"compressedSize\":").append(directoryEntry.getCompressedSize())
+                        .append(",\"uncompressedSize\":").append(directoryEntry.getUncompressedSize()).append('}');
+            }
+            line.append(']');
+        }
+        return line.append('}').toString();
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
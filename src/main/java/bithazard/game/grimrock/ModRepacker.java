@@ -0,0 +1,408 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.model.EditorVersionInfo;
+import bithazard.game.grimrock.model.FileHeader;
+import bithazard.game.grimrock.model.ModInfo;
+import bithazard.game.grimrock.model.ModInfoEntry;
+import bithazard.game.grimrock.utils.ByteUtils;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+import bithazard.game.grimrock.utils.LuaStringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+//Builds a mod file from an extracted mod directory: the .dungeon_editor file provides the mod info, all other files become entries. Files
+//that could not be resolved during extraction (<hash>.tmp) keep their hash.
+public class ModRepacker {
+    public static final String COMMAND = "repack";
+    private static final String EDITOR_FILE_EXTENSION = ".dungeon_editor";
+    //used if there is no template, the meaning of the other fields of the mod info entry is unknown so they are left at 0
+    private static final long DEFAULT_EDITOR_VERSION = 2;
+    private static final Pattern EDITOR_FILE_FIELD_PATTERN = Pattern.compile("^\\s*(\\w+)\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|'((?:[^'\\\\]|\\\\.)*)')",
+            Pattern.DOTALL | Pattern.MULTILINE);
+    private static final Pattern UUID_PATTERN = Pattern.compile("UUID ([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})");
+    private static final Pattern TEMPORARY_FILENAME_PATTERN = Pattern.compile("([0-9a-f]{1,8})\\.tmp");
+    private static final int HEADER_LENGTH = FileHeader.LENGTH + EditorVersionInfo.LENGTH + ModInfoEntry.LENGTH;
+    private static final int READ_BUFFER_LENGTH = 65536;
+    //Larger files are split into chunks that are deflated in parallel and written to the mod file one after another, so their size is only
+    //limited by the format. Every chunk but the last ends with a sync flush, which aligns it to a byte boundary, so the raw deflate data
+    //of the chunks can simply be concatenated. Each chunk uses the end of the previous one as dictionary, which keeps the compression ratio.
+    private static final long CHUNKED_DEFLATE_SIZE = 16 * 1024 * 1024;
+    private static final int CHUNK_LENGTH = 4 * 1024 * 1024;
+    private static final int DICTIONARY_LENGTH = 32 * 1024;
+    private static final int ADLER32_BASE = 65521;
+    //maximum total size of the files that are deflated into buffers ahead of writing them
+    private static final long MAX_PENDING_BYTES = 128 * 1024 * 1024;
+    private final int threads;
+    private final int compressionLevel;
+    private ModFileReader template;
+
+    private static final class SourceFile {
+        private final Path path;
+        private final int fnv1aHash;
+        private final long size;
+
+        private SourceFile(Path path, int fnv1aHash, long size) {
+            this.path = path;
+            this.fnv1aHash = fnv1aHash;
+            this.size = size;
+        }
+
+        private boolean isDeflatedInChunks() {
+            return size > CHUNKED_DEFLATE_SIZE;
+        }
+    }
+
+    private static final class DeflatedChunk {
+        private final int length;
+        private final int adler32;
+        private final byte[] compressedData;
+
+        private DeflatedChunk(int length, int adler32, byte[] compressedData) {
+            this.length = length;
+            this.adler32 = adler32;
+            this.compressedData = compressedData;
+        }
+    }
+
+    private static final class DeflatedFile {
+        private final long uncompressedSize;
+        private final byte[] compressedData;
+
+        private DeflatedFile(long uncompressedSize, byte[] compressedData) {
+            this.uncompressedSize = uncompressedSize;
+            this.compressedData = compressedData;
+        }
+    }
+
+    public ModRepacker(int threads, int compressionLevel) {
+        this.threads = threads;
+        this.compressionLevel = compressionLevel;
+    }
+
+    //the editor version, the unknown fields of the mod info entry and the UUID are taken from the template instead of the defaults
+    public void setTemplate(ModFileReader template) {
+        this.template = template;
+    }
+
+    public static void run(CommandLine commandLine) throws IOException {
+        List<String> arguments = commandLine.getArguments();
+        if (arguments.size() != 3) {
+            System.err.println("Please pass an extracted mod directory and the mod file to create: " + COMMAND + " <mod directory> <target file>");
+            return;
+        }
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        int compressionLevel = commandLine.getIntOption("level", Deflater.DEFAULT_COMPRESSION);
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Option --level expects a compression level from 0 to 9 but was " + compressionLevel + ".");
+        }
+        ModRepacker modRepacker = new ModRepacker(threads, compressionLevel);
+        String templatePath = commandLine.getOption("template", null);
+        if (templatePath == null) {
+            modRepacker.repack(new File(arguments.get(1)), new File(arguments.get(2)));
+            return;
+        }
+        try (ModFileReader template = new ModFileReader(Path.of(templatePath))) {
+            modRepacker.setTemplate(template);
+            modRepacker.repack(new File(arguments.get(1)), new File(arguments.get(2)));
+        }
+    }
+
+    public void repack(File modDirectory, File targetFile) throws IOException {
+        long startTime = System.nanoTime();
+        Path editorFilePath = findEditorFile(modDirectory.toPath());
+        ModInfo modInfo = readEditorFile(editorFilePath);
+        List<SourceFile> sourceFiles = findSourceFiles(modDirectory.toPath(), editorFilePath);
+        System.out.println("Packing " + sourceFiles.size() + " files of " + modInfo.getDungeonName() + "...");
+
+        long dataPosition = HEADER_LENGTH + (long)sourceFiles.size() * DirectoryEntry.LENGTH + modInfo.getBytes().length;
+        List<DirectoryEntry> directoryEntries = new ArrayList<>();
+        long uncompressedSize = 0;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (FileChannel fileChannel = FileChannel.open(targetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            //Files are deflated in parallel into buffers but written in the order of the directory. The buffered files are limited by their
+            //total size, the chunks of large files are only deflated when it is their turn.
+            fileChannel.position(dataPosition);
+            Deque<Future<DeflatedFile>> pendingFiles = new ArrayDeque<>();
+            long pendingBytes = 0;
+            int nextSourceFileIndex = 0;
+            for (SourceFile sourceFile : sourceFiles) {
+                while (nextSourceFileIndex < sourceFiles.size()) {
+                    SourceFile nextSourceFile = sourceFiles.get(nextSourceFileIndex);
+                    if (nextSourceFile.isDeflatedInChunks()) {
+                        nextSourceFileIndex++;
+                        continue;
+                    }
+                    if (!pendingFiles.isEmpty() && pendingBytes + nextSourceFile.size > MAX_PENDING_BYTES) {
+                        break;
+                    }
+                    pendingFiles.add(executorService.submit(() -> deflateFile(nextSourceFile.path)));
+                    pendingBytes += nextSourceFile.size;
+                    nextSourceFileIndex++;
+                }
+                long position = fileChannel.position();
+                long fileUncompressedSize;
+                if (sourceFile.isDeflatedInChunks()) {
+                    fileUncompressedSize = deflateFileInChunks(sourceFile.path, fileChannel, executorService);
+                } else {
+                    DeflatedFile deflatedFile = ConcurrencyUtils.awaitResult(pendingFiles.remove());
+                    pendingBytes -= sourceFile.size;
+                    writeFully(fileChannel, ByteBuffer.wrap(deflatedFile.compressedData));
+                    fileUncompressedSize = deflatedFile.uncompressedSize;
+                }
+                long compressedSize = fileChannel.position() - position;
+                directoryEntries.add(DirectoryEntry.create(Integer.toUnsignedLong(sourceFile.fnv1aHash), position, compressedSize, fileUncompressedSize));
+                uncompressedSize += fileUncompressedSize;
+            }
+            fileChannel.position(0);
+            writeFully(fileChannel, ByteBuffer.wrap(createHeader(modInfo, directoryEntries)));
+            System.out.println(String.format("Packed %d files (%.1f MB, %.1f MB compressed) into %s in %d ms", sourceFiles.size(),
+                    uncompressedSize / (1024.0 * 1024.0), fileChannel.size() / (1024.0 * 1024.0), targetFile, (System.nanoTime() - startTime) / 1_000_000));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private byte[] createHeader(ModInfo modInfo, List<DirectoryEntry> directoryEntries) {
+        long modInfoPosition = HEADER_LENGTH + (long)directoryEntries.size() * DirectoryEntry.LENGTH;
+        long editorVersion = DEFAULT_EDITOR_VERSION;
+        ModInfoEntry modInfoEntry = ModInfoEntry.create(0, modInfoPosition, 0, modInfo.getBytes().length, 0);
+        if (template != null) {
+            ModInfoEntry templateModInfoEntry = template.getModInfoEntry();
+            editorVersion = template.getEditorVersionInfo().getVersionNumber();
+            modInfoEntry = ModInfoEntry.create(templateModInfoEntry.getFnv1aHash(), modInfoPosition, templateModInfoEntry.getUnknown1(),
+                    modInfo.getBytes().length, templateModInfoEntry.getUnknown2());
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.writeBytes(FileHeader.create().getBytes());
+        header.writeBytes(EditorVersionInfo.create(editorVersion).getBytes());
+        header.writeBytes(modInfoEntry.getBytes());
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            header.writeBytes(directoryEntry.getBytes());
+        }
+        header.writeBytes(modInfo.getBytes());
+        return header.toByteArray();
+    }
+
+    private DeflatedFile deflateFile(Path path) throws IOException {
+        ByteArrayOutputStream compressedData = new ByteArrayOutputStream((int)(Files.size(path) / 2 + 64));
+        long uncompressedSize = deflateFile(path, compressedData);
+        return new DeflatedFile(uncompressedSize, compressedData.toByteArray());
+    }
+
+    //returns the uncompressed size, the target stream is not closed
+    private long deflateFile(Path path, OutputStream target) throws IOException {
+        Deflater deflater = new Deflater(compressionLevel);
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(target, deflater, READ_BUFFER_LENGTH);
+            long uncompressedSize = 0;
+            byte[] buffer = new byte[READ_BUFFER_LENGTH];
+            int readCount;
+            while ((readCount = inputStream.read(buffer)) != -1) {
+                deflaterOutputStream.write(buffer, 0, readCount);
+                uncompressedSize += readCount;
+            }
+            deflaterOutputStream.finish();
+            return uncompressedSize;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //writes a zlib stream like the one of a single Deflater and returns the uncompressed size
+    private long deflateFileInChunks(Path path, FileChannel target, ExecutorService executorService) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = sourceChannel.size();
+            long chunkCount = Math.max(1, (size + CHUNK_LENGTH - 1) / CHUNK_LENGTH);
+            writeFully(target, ByteBuffer.wrap(createZlibHeader()));
+            //one chunk more than threads is deflated ahead, so that the workers are busy while a chunk is written
+            Deque<Future<DeflatedChunk>> pendingChunks = new ArrayDeque<>();
+            long nextChunkIndex = 0;
+            int adler32 = 1;
+            for (long chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+                while (nextChunkIndex < chunkCount && pendingChunks.size() <= threads) {
+                    long pendingChunkIndex = nextChunkIndex++;
+                    pendingChunks.add(executorService.submit(() -> deflateChunk(sourceChannel, size, pendingChunkIndex,
+                            pendingChunkIndex == chunkCount - 1)));
+                }
+                DeflatedChunk deflatedChunk = ConcurrencyUtils.awaitResult(pendingChunks.remove());
+                writeFully(target, ByteBuffer.wrap(deflatedChunk.compressedData));
+                adler32 = combineAdler32(adler32, deflatedChunk.adler32, deflatedChunk.length);
+            }
+            writeFully(target, ByteBuffer.allocate(Integer.BYTES).putInt(adler32).flip());
+            return size;
+        }
+    }
+
+    private DeflatedChunk deflateChunk(FileChannel sourceChannel, long size, long chunkIndex, boolean lastChunk) throws IOException {
+        long chunkPosition = chunkIndex * CHUNK_LENGTH;
+        int chunkLength = (int)Math.min(CHUNK_LENGTH, size - chunkPosition);
+        int dictionaryLength = (int)Math.min(DICTIONARY_LENGTH, chunkPosition);
+        ByteBuffer input = ByteBuffer.allocate(dictionaryLength + chunkLength);
+        while (input.hasRemaining()) {
+            if (sourceChannel.read(input, chunkPosition - dictionaryLength + input.position()) == -1) {
+                throw new EOFException("File became shorter while it was read.");
+            }
+        }
+        Adler32 adler32 = new Adler32();
+        adler32.update(input.array(), dictionaryLength, chunkLength);
+        ByteArrayOutputStream compressedData = new ByteArrayOutputStream(chunkLength / 2 + 64);
+        byte[] buffer = new byte[READ_BUFFER_LENGTH];
+        //the chunks are raw deflate data, the zlib header and checksum are written once for the whole file
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(input.array(), 0, dictionaryLength);
+            }
+            deflater.setInput(input.array(), dictionaryLength, chunkLength);
+            if (lastChunk) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressedData.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int deflatedLength;
+                do {
+                    deflatedLength = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressedData.write(buffer, 0, deflatedLength);
+                } while (deflatedLength == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new DeflatedChunk(chunkLength, (int)adler32.getValue(), compressedData.toByteArray());
+    }
+
+    //the two bytes a Deflater with the same compression level writes in front of the deflate data
+    private byte[] createZlibHeader() {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.finish();
+            byte[] emptyStream = new byte[64];
+            deflater.deflate(emptyStream);
+            return Arrays.copyOf(emptyStream, 2);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //the Adler-32 checksum of two concatenated parts, calculated from the checksums of both parts and the length of the second one
+    private static int combineAdler32(int firstAdler32, int secondAdler32, long secondLength) {
+        long remainder = secondLength % ADLER32_BASE;
+        long firstSum1 = firstAdler32 & 0xffff;
+        long sum1 = firstSum1 + (secondAdler32 & 0xffff) + ADLER32_BASE - 1;
+        long sum2 = remainder * firstSum1 % ADLER32_BASE + (firstAdler32 >>> 16) + (secondAdler32 >>> 16) + ADLER32_BASE - remainder;
+        sum1 %= ADLER32_BASE;
+        sum2 %= ADLER32_BASE;
+        return (int)(sum1 | sum2 << 16);
+    }
+
+    private static Path findEditorFile(Path modDirectory) throws IOException {
+        List<Path> editorFiles;
+        try (Stream<Path> paths = Files.list(modDirectory)) {
+            editorFiles = paths.filter(path -> path.getFileName().toString().endsWith(EDITOR_FILE_EXTENSION)).collect(Collectors.toList());
+        }
+        if (editorFiles.size() != 1) {
+            throw new InvalidFileException("Expected exactly one " + EDITOR_FILE_EXTENSION + " file in " + modDirectory + " but found "
+                    + editorFiles.size() + ".");
+        }
+        return editorFiles.get(0);
+    }
+
+    //the editor file is Lua, but only the assignments of plain strings are needed (e.g. dungeonName "Name")
+    private ModInfo readEditorFile(Path editorFilePath) throws IOException {
+        //encoded like it was written by the extractor
+        String editorFileContent = Files.readString(editorFilePath, Charset.defaultCharset());
+        Map<String, String> fields = new HashMap<>();
+        Matcher fieldMatcher = EDITOR_FILE_FIELD_PATTERN.matcher(editorFileContent);
+        while (fieldMatcher.find()) {
+            String escapedValue = fieldMatcher.group(2) != null ? fieldMatcher.group(2) : fieldMatcher.group(3);
+            fields.put(fieldMatcher.group(1), LuaStringUtils.unescapeLua(escapedValue));
+        }
+        for (String requiredField : new String[] {"dungeonName", "author", "dungeonFolder"}) {
+            if (!fields.containsKey(requiredField)) {
+                throw new InvalidFileException("Field " + requiredField + " is missing in " + editorFilePath + ".");
+            }
+        }
+        String uuid;
+        Matcher uuidMatcher = UUID_PATTERN.matcher(editorFileContent);
+        if (template != null) {
+            uuid = template.readModStructure().getModInfo().getUuid();
+        } else if (uuidMatcher.find()) {
+            uuid = uuidMatcher.group(1);
+        } else {
+            uuid = UUID.randomUUID().toString();
+        }
+        return ModInfo.create(uuid, fields.get("dungeonName"), fields.get("author"), fields.getOrDefault("description", ""),
+                fields.get("dungeonFolder"));
+    }
+
+    //the directory is sorted by hash
+    private static List<SourceFile> findSourceFiles(Path modDirectory, Path editorFilePath) throws IOException {
+        List<SourceFile> sourceFiles = new ArrayList<>();
+        Map<Integer, Path> pathsByHash = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(modDirectory)) {
+            for (Path path : (Iterable<Path>)paths.filter(Files::isRegularFile).sorted()::iterator) {
+                if (path.equals(editorFilePath)) {
+                    continue;
+                }
+                Path relativePath = modDirectory.relativize(path);
+                Matcher temporaryFilenameMatcher = TEMPORARY_FILENAME_PATTERN.matcher(relativePath.toString());
+                int fnv1aHash;
+                if (relativePath.getNameCount() == 1 && temporaryFilenameMatcher.matches()) {
+                    fnv1aHash = Integer.parseUnsignedInt(temporaryFilenameMatcher.group(1), 16);
+                } else {
+                    StringBuilder resourcePath = new StringBuilder();
+                    for (Path pathElement : relativePath) {
+                        resourcePath.append(resourcePath.length() == 0 ? "" : "/").append(pathElement);
+                    }
+                    fnv1aHash = ByteUtils.calculateFnv1aHash(resourcePath);
+                }
+                Path previousPath = pathsByHash.put(fnv1aHash, path);
+                if (previousPath != null) {
+                    throw new InvalidFileException(previousPath + " and " + path + " have the same hash " + Integer.toHexString(fnv1aHash) + ".");
+                }
+                sourceFiles.add(new SourceFile(path, fnv1aHash, Files.size(path)));
+            }
+        }
+        sourceFiles.sort(Comparator.comparingLong(sourceFile -> Integer.toUnsignedLong(sourceFile.fnv1aHash)));
+        return sourceFiles;
+    }
+
+    private static void writeFully(FileChannel fileChannel, ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            fileChannel.write(byteBuffer);
+        }
+    }
+}
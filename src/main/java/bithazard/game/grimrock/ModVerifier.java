@@ -0,0 +1,202 @@
+package bithazard.game.grimrock;
+
+import bithazard.game.grimrock.model.DirectoryEntry;
+import bithazard.game.grimrock.model.ModInfoEntry;
+import bithazard.game.grimrock.model.ModStructure;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+import bithazard.game.grimrock.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Checks mod files without writing anything to disk: the regions of all entries have to lie inside the file without overlapping each other,
+//the directory or the mod info and every entry has to inflate to exactly its uncompressed size.
+public class ModVerifier {
+    public static final String COMMAND = "verify";
+    private final int threads;
+
+    private static final class EntryResult {
+        private final long inflatedSize;
+        private final Optional<FileUtils.Filetype> filetype;
+        private final String problem;
+
+        private EntryResult(long inflatedSize, Optional<FileUtils.Filetype> filetype, String problem) {
+            this.inflatedSize = inflatedSize;
+            this.filetype = filetype;
+            this.problem = problem;
+        }
+    }
+
+    //counts and drops everything written to it except for the first bytes, which are needed to determine the type of the entry
+    private static final class DiscardingChannel implements WritableByteChannel {
+        private final byte[] magicNumberBytes = new byte[FileUtils.MAGIC_NUMBER_LENGTH];
+        private int magicNumberLength;
+        private long size;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            int magicNumberCopyLength = Math.min(magicNumberBytes.length - magicNumberLength, length);
+            source.get(magicNumberBytes, magicNumberLength, magicNumberCopyLength);
+            magicNumberLength += magicNumberCopyLength;
+            source.position(source.limit());
+            size += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public ModVerifier(int threads) {
+        this.threads = threads;
+    }
+
+    //returns false if at least one mod file is broken
+    public static boolean run(CommandLine commandLine) throws IOException {
+        List<String> arguments = commandLine.getArguments();
+        if (arguments.size() < 2) {
+            System.err.println("Please pass at least one mod file or directory containing mod files: " + COMMAND + " <mod files or directories>");
+            return false;
+        }
+        List<File> modFilePaths = BatchExtractor.findModFiles(arguments.subList(1, arguments.size()));
+        int threads = commandLine.getIntOption("threads", ConcurrencyUtils.getDefaultThreadCount());
+        return new ModVerifier(threads).verify(modFilePaths);
+    }
+
+    public boolean verify(List<File> modFilePaths) throws IOException {
+        long startTime = System.nanoTime();
+        int failedCount = 0;
+        long totalInflatedSize = 0;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            for (File modFilePath : modFilePaths) {
+                long modStartTime = System.nanoTime();
+                List<String> problems = new ArrayList<>();
+                Map<FileUtils.Filetype, Integer> filetypeCounts = new EnumMap<>(FileUtils.Filetype.class);
+                int luaCount = 0;
+                long inflatedSize = 0;
+                int entryCount = 0;
+                try (ModFileReader modFileReader = new ModFileReader(modFilePath.toPath())) {
+                    ModStructure modStructure = modFileReader.readModStructure();
+                    List<DirectoryEntry> directoryEntries = modStructure.getDirectoryEntries();
+                    entryCount = directoryEntries.size();
+                    List<DirectoryEntry> verifiableEntries = checkRegions(directoryEntries, modFileReader.getModInfoEntry(), modFileReader.getSize(),
+                            problems);
+                    List<Future<EntryResult>> results = new ArrayList<>();
+                    for (DirectoryEntry directoryEntry : verifiableEntries) {
+                        results.add(executorService.submit(() -> verifyEntry(directoryEntry, modFileReader)));
+                    }
+                    for (Future<EntryResult> result : results) {
+                        EntryResult entryResult = ConcurrencyUtils.awaitResult(result);
+                        inflatedSize += entryResult.inflatedSize;
+                        if (entryResult.problem != null) {
+                            problems.add(entryResult.problem);
+                        } else if (entryResult.filetype.isPresent()) {
+                            filetypeCounts.merge(entryResult.filetype.get(), 1, Integer::sum);
+                        } else {
+                            luaCount++;
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    problems.add(String.valueOf(e.getMessage()));
+                }
+                totalInflatedSize += inflatedSize;
+                long elapsedNanos = System.nanoTime() - modStartTime;
+                if (problems.isEmpty()) {
+                    StringBuilder filetypeSummary = new StringBuilder().append(luaCount).append(" .lua");
+                    filetypeCounts.forEach((filetype, count) -> filetypeSummary.append(", ").append(count).append(' ').append(filetype.getFileExtension()));
+                    System.out.println("OK " + modFilePath + ": " + entryCount + " entries (" + filetypeSummary + "), "
+                            + formatThroughput(inflatedSize, elapsedNanos));
+                } else {
+                    failedCount++;
+                    System.out.println("FAILED " + modFilePath + ":");
+                    for (String problem : problems) {
+                        System.out.println("    " + problem);
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        System.out.println((modFilePaths.size() - failedCount) + " of " + modFilePaths.size() + " mod files are valid, "
+                + formatThroughput(totalInflatedSize, System.nanoTime() - startTime));
+        return failedCount == 0;
+    }
+
+    //returns the entries whose regions are inside the file; entries that overlap each other are still inflated
+    private static List<DirectoryEntry> checkRegions(List<DirectoryEntry> directoryEntries, ModInfoEntry modInfoEntry, long fileSize,
+            List<String> problems) {
+        long directoryEnd = modInfoEntry.getPosition();
+        long modInfoEnd = directoryEnd + modInfoEntry.getCompressedSize();
+        if (modInfoEnd > fileSize) {
+            problems.add("Mod info ends at " + modInfoEnd + " behind the end of the file at " + fileSize);
+        }
+        List<DirectoryEntry> verifiableEntries = new ArrayList<>();
+        for (DirectoryEntry directoryEntry : directoryEntries) {
+            long entryEnd = directoryEntry.getPosition() + directoryEntry.getCompressedSize();
+            if (entryEnd > fileSize) {
+                problems.add(formatEntry(directoryEntry) + " ends at " + entryEnd + " behind the end of the file at " + fileSize);
+            } else if (directoryEntry.getPosition() < modInfoEnd) {
+                problems.add(formatEntry(directoryEntry) + " overlaps the header, the directory or the mod info");
+                verifiableEntries.add(directoryEntry);
+            } else {
+                verifiableEntries.add(directoryEntry);
+            }
+        }
+        List<DirectoryEntry> sortedEntries = new ArrayList<>(verifiableEntries);
+        sortedEntries.sort(Comparator.comparingLong(DirectoryEntry::getPosition));
+        for (int i = 1; i < sortedEntries.size(); i++) {
+            DirectoryEntry previousEntry = sortedEntries.get(i - 1);
+            DirectoryEntry directoryEntry = sortedEntries.get(i);
+            if (previousEntry.getPosition() + previousEntry.getCompressedSize() > directoryEntry.getPosition()) {
+                problems.add(formatEntry(previousEntry) + " overlaps " + formatEntry(directoryEntry));
+            }
+        }
+        return verifiableEntries;
+    }
+
+    private static EntryResult verifyEntry(DirectoryEntry directoryEntry, ModFileReader modFileReader) {
+        DiscardingChannel discardingChannel = new DiscardingChannel();
+        long inflatedSize;
+        try {
+            inflatedSize = modFileReader.inflateEntry(directoryEntry, discardingChannel);
+        } catch (IOException e) {
+            return new EntryResult(discardingChannel.size, Optional.empty(), formatEntry(directoryEntry) + " cannot be inflated: " + e.getMessage());
+        }
+        if (inflatedSize != directoryEntry.getUncompressedSize()) {
+            return new EntryResult(inflatedSize, Optional.empty(), formatEntry(directoryEntry) + " inflates to " + inflatedSize
+                    + " bytes instead of " + directoryEntry.getUncompressedSize());
+        }
+        byte[] magicNumberBytes = Arrays.copyOf(discardingChannel.magicNumberBytes, discardingChannel.magicNumberLength);
+        return new EntryResult(inflatedSize, FileUtils.determineFiletype(magicNumberBytes), null);
+    }
+
+    private static String formatEntry(DirectoryEntry directoryEntry) {
+        return String.format("Entry %08x at %d", directoryEntry.getFnv1aHash(), directoryEntry.getPosition());
+    }
+
+    private static String formatThroughput(long inflatedSize, long elapsedNanos) {
+        double megabytes = inflatedSize / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        return String.format("%.1f MB inflated in %d ms (%.1f MB/s)", megabytes, elapsedNanos / 1_000_000, megabytes / seconds);
+    }
+}
@@ -15,6 +15,10 @@ public class DirectoryEntry {
         this.bytes = bytes;
     }
 
+    public static DirectoryEntry create(long fnv1aHash, long position, long compressedSize, long uncompressedSize) {
+        return new DirectoryEntry(ByteUtils.convertFromUnsigned32BitLittleEndian(fnv1aHash, position, compressedSize, uncompressedSize, 0));
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
@@ -14,6 +14,10 @@ public class EditorVersionInfo {
         this.bytes = bytes;
     }
 
+    public static EditorVersionInfo create(long versionNumber) {
+        return new EditorVersionInfo(ByteUtils.convertFromUnsigned32BitLittleEndian(versionNumber));
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
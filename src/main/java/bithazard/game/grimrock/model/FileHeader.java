@@ -15,6 +15,10 @@ public class FileHeader {
         this.bytes = bytes;
     }
 
+    public static FileHeader create() {
+        return new FileHeader(LOG2_FILE_HEADER.getBytes(StandardCharsets.UTF_8));
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
@@ -2,6 +2,7 @@ package bithazard.game.grimrock.model;
 
 import bithazard.game.grimrock.utils.ByteUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 
 public class ModInfo {
@@ -17,6 +18,16 @@ public class ModInfo {
         this.bytes = bytes;
     }
 
+    public static ModInfo create(String uuid, String dungeonName, String author, String description, String dungeonFolder) {
+        ByteArrayOutputStream modInfoBytes = new ByteArrayOutputStream();
+        for (String value : new String[] {uuid, dungeonName, author, description, dungeonFolder}) {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            modInfoBytes.writeBytes(ByteUtils.convertFromUnsigned32BitLittleEndian(valueBytes.length));
+            modInfoBytes.writeBytes(valueBytes);
+        }
+        return new ModInfo(modInfoBytes.toByteArray());
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
@@ -15,6 +15,10 @@ public class ModInfoEntry {
         this.bytes = bytes;
     }
 
+    public static ModInfoEntry create(long fnv1aHash, long position, long unknown1, long compressedSize, long unknown2) {
+        return new ModInfoEntry(ByteUtils.convertFromUnsigned32BitLittleEndian(fnv1aHash, position, unknown1, compressedSize, unknown2));
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
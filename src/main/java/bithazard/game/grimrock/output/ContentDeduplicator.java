@@ -0,0 +1,146 @@
+package bithazard.game.grimrock.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Writes files with the same content only once and links all other copies to it, also across the mods of a batch. Only files whose size
+//occurs more than once are hashed, files with a unique size cannot have a duplicate.
+public class ContentDeduplicator {
+    //smaller files do not take up less space as a link
+    private static final long MIN_FILE_SIZE = 4096;
+    private final ConcurrentMap<Long, AtomicInteger> sizeCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<Object>, CompletableFuture<StoredCopy>> storedCopies = new ConcurrentHashMap<>();
+    private final AtomicInteger duplicateCount = new AtomicInteger();
+    private final AtomicInteger linkedCount = new AtomicInteger();
+    private final AtomicLong linkedSize = new AtomicLong();
+
+    public static final class ContentKey {
+        private final long size;
+        private final byte[] digest;
+
+        private ContentKey(long size, byte[] digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey otherContentKey = (ContentKey)other;
+            return size == otherContentKey.size && Arrays.equals(digest, otherContentKey.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest);
+        }
+    }
+
+    private static final class StoredCopy {
+        private final OutputSink outputSink;
+        private final String path;
+
+        private StoredCopy(OutputSink outputSink, String path) {
+            this.outputSink = outputSink;
+            this.path = path;
+        }
+    }
+
+    //has to be called with the sizes of all files before the first file is written
+    public void addFileSize(long size) {
+        if (size >= MIN_FILE_SIZE) {
+            sizeCounts.computeIfAbsent(size, key -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    public boolean isCandidate(long size) {
+        AtomicInteger sizeCount = sizeCounts.get(size);
+        return sizeCount != null && sizeCount.get() > 1;
+    }
+
+    public static ContentKey createKey(long size, OutputSink.FileContent fileContent) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        fileContent.writeTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) {
+                int length = source.remaining();
+                messageDigest.update(source);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return new ContentKey(size, messageDigest.digest());
+    }
+
+    //writes the file or links it to an earlier copy. Returns the location of the copy the file was linked to or null if it was written.
+    public String writeFile(ContentKey contentKey, OutputSink outputSink, String path, OutputSink.FileContent fileContent) throws IOException {
+        //copies are stored per link scope, so that e.g. every tar archive of a batch has its own copy to link to
+        List<Object> storedCopyKey = List.of(outputSink.getLinkScope(), contentKey);
+        CompletableFuture<StoredCopy> newCopy = new CompletableFuture<>();
+        CompletableFuture<StoredCopy> existingCopy = storedCopies.putIfAbsent(storedCopyKey, newCopy);
+        if (existingCopy == null) {
+            try {
+                outputSink.writeFile(path, contentKey.size, fileContent);
+            } catch (IOException | RuntimeException e) {
+                //the next copy will be written instead
+                storedCopies.remove(storedCopyKey, newCopy);
+                newCopy.complete(null);
+                throw e;
+            }
+            newCopy.complete(new StoredCopy(outputSink, path));
+            return null;
+        }
+        duplicateCount.incrementAndGet();
+        //the first copy may still be written by another thread
+        StoredCopy storedCopy = awaitStoredCopy(existingCopy);
+        if (storedCopy != null && outputSink.writeLink(path, storedCopy.outputSink, storedCopy.path)) {
+            linkedCount.incrementAndGet();
+            linkedSize.addAndGet(contentKey.size);
+            return storedCopy.outputSink.getLocation(storedCopy.path);
+        }
+        outputSink.writeFile(path, contentKey.size, fileContent);
+        return null;
+    }
+
+    public String getReport() {
+        return String.format("%d duplicate files found, %d of them stored as links (%.1f MB saved)", duplicateCount.get(), linkedCount.get(),
+                linkedSize.get() / (1024.0 * 1024.0));
+    }
+
+    private static StoredCopy awaitStoredCopy(CompletableFuture<StoredCopy> storedCopy) throws IOException {
+        try {
+            return storedCopy.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a duplicate file to be written.", e);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+}
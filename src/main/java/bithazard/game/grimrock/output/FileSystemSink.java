@@ -0,0 +1,122 @@
+package bithazard.game.grimrock.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class FileSystemSink implements OutputSink {
+    private final File targetPathWithModDir;
+    private final Set<File> createdDirectories = new HashSet<>();
+    private final boolean ignoresCase;
+
+    public FileSystemSink(File targetPathWithModDir) throws IOException {
+        this.targetPathWithModDir = targetPathWithModDir;
+        Files.createDirectories(targetPathWithModDir.toPath());
+        ignoresCase = isCaseInsensitive(targetPathWithModDir);
+    }
+
+    //a file with a lower case name is looked up by its upper case name
+    private static boolean isCaseInsensitive(File directory) throws IOException {
+        Path probePath = Files.createTempFile(directory.toPath(), "case", ".tmp");
+        try {
+            return Files.exists(probePath.resolveSibling(probePath.getFileName().toString().toUpperCase(Locale.ROOT)));
+        } finally {
+            Files.deleteIfExists(probePath);
+        }
+    }
+
+    //creates every directory exactly once, parents before their children, instead of checking the whole path again for every file
+    @Override
+    public void prepare(Collection<String> paths) throws IOException {
+        Set<File> directories = new HashSet<>();
+        for (String path : paths) {
+            for (File directory = new File(targetPathWithModDir, path).getParentFile(); !directory.equals(targetPathWithModDir)
+                    && directories.add(directory); directory = directory.getParentFile()) {
+                //all parents are added as well
+            }
+        }
+        List<File> sortedDirectories = new ArrayList<>(directories);
+        sortedDirectories.sort(Comparator.comparingInt((File directory) -> directory.getPath().length()));
+        for (File directory : sortedDirectories) {
+            try {
+                Files.createDirectory(directory.toPath());
+            } catch (FileAlreadyExistsException e) {
+                if (!directory.isDirectory()) {
+                    throw e;
+                }
+            }
+        }
+        createdDirectories.addAll(directories);
+        createdDirectories.add(targetPathWithModDir);
+    }
+
+    @Override
+    public void writeFile(String path, long size, FileContent fileContent) throws IOException {
+        File targetFile = new File(targetPathWithModDir, path);
+        if (!createdDirectories.contains(targetFile.getParentFile())) {
+            Files.createDirectories(targetFile.getParentFile().toPath());
+        }
+        //an existing file may be a hard link to the same file of another mod, writing it in place would change that file as well
+        Files.deleteIfExists(targetFile.toPath());
+        try (FileChannel fileChannel = FileChannel.open(targetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            fileContent.writeTo(fileChannel);
+        }
+    }
+
+    //links between mod directories are possible as long as they are on the same device
+    @Override
+    public Object getLinkScope() {
+        return FileSystemSink.class;
+    }
+
+    @Override
+    public boolean writeLink(String path, OutputSink existingSink, String existingPath) throws IOException {
+        if (!(existingSink instanceof FileSystemSink)) {
+            return false;
+        }
+        File targetFile = new File(targetPathWithModDir, path);
+        File existingFile = new File(((FileSystemSink)existingSink).targetPathWithModDir, existingPath);
+        if (!createdDirectories.contains(targetFile.getParentFile())) {
+            Files.createDirectories(targetFile.getParentFile().toPath());
+        }
+        try {
+            Files.deleteIfExists(targetFile.toPath());
+            Files.createLink(targetFile.toPath(), existingFile.toPath());
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            //e.g. file systems without hard links or files on different devices
+            return false;
+        }
+    }
+
+    @Override
+    public boolean ignoresCase() {
+        return ignoresCase;
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public String getLocation(String path) {
+        return new File(targetPathWithModDir, path).toString();
+    }
+
+    @Override
+    public void close() {
+    }
+}
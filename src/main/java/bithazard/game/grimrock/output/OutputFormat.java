@@ -0,0 +1,39 @@
+package bithazard.game.grimrock.output;
+
+import java.io.File;
+import java.io.IOException;
+
+public enum OutputFormat {
+    DIRECTORY(""),
+    ZIP(".zip"),
+    TAR(".tar");
+
+    private final String fileExtension;
+
+    OutputFormat(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    public static OutputFormat fromOption(String option) {
+        for (OutputFormat outputFormat : values()) {
+            if (outputFormat.name().equalsIgnoreCase(option)) {
+                return outputFormat;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format '" + option + "'. Use directory, zip or tar.");
+    }
+
+    //archives are created next to where the mod directory would be, named like it
+    public OutputSink createSink(File targetPathWithModDir) throws IOException {
+        String modDirectoryName = targetPathWithModDir.getName();
+        File archivePath = new File(targetPathWithModDir.getPath() + fileExtension);
+        switch (this) {
+            case ZIP:
+                return new ZipSink(archivePath, modDirectoryName);
+            case TAR:
+                return new TarSink(archivePath, modDirectoryName);
+            default:
+                return new FileSystemSink(targetPathWithModDir);
+        }
+    }
+}
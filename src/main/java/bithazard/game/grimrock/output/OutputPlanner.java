@@ -0,0 +1,58 @@
+package bithazard.game.grimrock.output;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+//Checks the paths of all files of a mod before anything is written. Two paths collide if a file has the same path as a directory that another
+//file is in or, if the target ignores case (like the usual file systems of Windows and macOS), if they only differ in case.
+public class OutputPlanner {
+    private final boolean ignoreCase;
+    private final Map<String, String> plannedFiles = new HashMap<>();
+    private final Set<String> plannedDirectories = new HashSet<>();
+
+    public OutputPlanner(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    //a path has to stay inside of the mod directory: relative, without empty, . or .. segments and without backslashes or colons, which are
+    //separators and drive letters on Windows
+    public static boolean isSafePath(String path) {
+        if (path.indexOf('\\') != -1 || path.indexOf(':') != -1) {
+            return false;
+        }
+        for (String segment : path.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //returns the path of the already planned file or directory the path collides with or null if the path was added to the plan
+    public String plan(String path) {
+        String normalizedPath = ignoreCase ? path.toLowerCase(Locale.ROOT) : path;
+        String collidingFile = plannedFiles.get(normalizedPath);
+        if (collidingFile != null) {
+            return collidingFile;
+        }
+        if (plannedDirectories.contains(normalizedPath)) {
+            return path + "/";
+        }
+        for (int separatorPosition = normalizedPath.indexOf('/'); separatorPosition != -1;
+             separatorPosition = normalizedPath.indexOf('/', separatorPosition + 1)) {
+            collidingFile = plannedFiles.get(normalizedPath.substring(0, separatorPosition));
+            if (collidingFile != null) {
+                return collidingFile;
+            }
+        }
+        plannedFiles.put(normalizedPath, path);
+        for (int separatorPosition = normalizedPath.indexOf('/'); separatorPosition != -1;
+             separatorPosition = normalizedPath.indexOf('/', separatorPosition + 1)) {
+            plannedDirectories.add(normalizedPath.substring(0, separatorPosition));
+        }
+        return null;
+    }
+}
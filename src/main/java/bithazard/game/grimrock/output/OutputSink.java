@@ -0,0 +1,42 @@
+package bithazard.game.grimrock.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+
+//Receives the extracted files of one mod. Paths are relative to the mod directory and use / as separator.
+public interface OutputSink extends Closeable {
+    interface FileContent {
+        void writeTo(WritableByteChannel channel) throws IOException;
+    }
+
+    //called once with the paths of all files before they are written
+    default void prepare(Collection<String> paths) throws IOException {
+    }
+
+    //the size has to be known in advance, as some archive formats store it in front of the content
+    void writeFile(String path, long size, FileContent fileContent) throws IOException;
+
+    //files can only be linked to files of sinks with the same scope, null if the sink cannot store links at all
+    default Object getLinkScope() {
+        return null;
+    }
+
+    //stores the file as a link to a file with the same content that was written before, possibly by another sink. Returns false if the sink
+    //cannot link to that file, the file has to be written normally then.
+    default boolean writeLink(String path, OutputSink existingSink, String existingPath) throws IOException {
+        return false;
+    }
+
+    //true if paths that only differ in case refer to the same file, which is only the case for some file systems and never in archives
+    default boolean ignoresCase() {
+        return false;
+    }
+
+    //archives are written sequentially, so files must not be written by several threads at once
+    boolean supportsConcurrentWrites();
+
+    //where the file ends up, as shown to the user
+    String getLocation(String path);
+}
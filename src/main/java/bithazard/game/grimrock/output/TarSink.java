@@ -0,0 +1,167 @@
+package bithazard.game.grimrock.output;
+
+import bithazard.game.grimrock.InvalidFileException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+//Writes all files of a mod into one uncompressed tar archive (ustar format, with GNU long name entries for paths that do not fit into the
+//header). The files are stored below a directory named like the mod.
+public class TarSink implements OutputSink {
+    private static final int BLOCK_LENGTH = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final String GNU_LONG_NAME = "././@LongLink";
+    private static final char FILE_TYPE = '0';
+    private static final char HARD_LINK_TYPE = '1';
+    private static final char GNU_LONG_NAME_TYPE = 'L';
+    private final File archivePath;
+    private final String modDirectoryName;
+    private final FileChannel fileChannel;
+    private final long modificationTime = System.currentTimeMillis() / 1000;
+
+    public TarSink(File archivePath, String modDirectoryName) throws IOException {
+        this.archivePath = archivePath;
+        this.modDirectoryName = modDirectoryName;
+        Files.createDirectories(archivePath.getAbsoluteFile().getParentFile().toPath());
+        fileChannel = FileChannel.open(archivePath.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized void writeFile(String path, long size, FileContent fileContent) throws IOException {
+        String entryName = modDirectoryName + "/" + path;
+        writeHeader(entryName, size, FILE_TYPE, new byte[0]);
+        long contentStart = fileChannel.position();
+        fileContent.writeTo(fileChannel);
+        long writtenSize = fileChannel.position() - contentStart;
+        if (writtenSize != size) {
+            throw new InvalidFileException(entryName + " has " + writtenSize + " bytes instead of the " + size + " bytes stored in the mod file.");
+        }
+        writePadding(size);
+    }
+
+    //tar archives can only link to files in the same archive
+    @Override
+    public Object getLinkScope() {
+        return this;
+    }
+
+    @Override
+    public synchronized boolean writeLink(String path, OutputSink existingSink, String existingPath) throws IOException {
+        byte[] linkNameBytes = (modDirectoryName + "/" + existingPath).getBytes(StandardCharsets.UTF_8);
+        if (existingSink != this || linkNameBytes.length > NAME_LENGTH) {
+            return false;
+        }
+        writeHeader(modDirectoryName + "/" + path, 0, HARD_LINK_TYPE, linkNameBytes);
+        return true;
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    @Override
+    public String getLocation(String path) {
+        return archivePath + "!/" + modDirectoryName + "/" + path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (fileChannel) {
+            writeFully(ByteBuffer.allocate(2 * BLOCK_LENGTH));
+        }
+    }
+
+    private void writeHeader(String entryName, long size, char typeFlag, byte[] linkName) throws IOException {
+        byte[] nameBytes = entryName.getBytes(StandardCharsets.UTF_8);
+        byte[] headerName = nameBytes;
+        byte[] headerPrefix = new byte[0];
+        if (nameBytes.length > NAME_LENGTH) {
+            int separatorPosition = findPrefixSeparator(nameBytes);
+            if (separatorPosition == -1) {
+                byte[] longNameBytes = new byte[nameBytes.length + 1];
+                System.arraycopy(nameBytes, 0, longNameBytes, 0, nameBytes.length);
+                writeFully(createHeader(GNU_LONG_NAME.getBytes(StandardCharsets.US_ASCII), new byte[0], longNameBytes.length, GNU_LONG_NAME_TYPE,
+                        new byte[0]));
+                writeFully(ByteBuffer.wrap(longNameBytes));
+                writePadding(longNameBytes.length);
+                headerName = new byte[NAME_LENGTH];
+                System.arraycopy(nameBytes, 0, headerName, 0, NAME_LENGTH);
+            } else {
+                headerPrefix = new byte[separatorPosition];
+                System.arraycopy(nameBytes, 0, headerPrefix, 0, separatorPosition);
+                headerName = new byte[nameBytes.length - separatorPosition - 1];
+                System.arraycopy(nameBytes, separatorPosition + 1, headerName, 0, headerName.length);
+            }
+        }
+        writeFully(createHeader(headerName, headerPrefix, size, typeFlag, linkName));
+    }
+
+    //returns the position of a / that splits the name into a prefix and a name that both fit into the header or -1 if there is none
+    private static int findPrefixSeparator(byte[] nameBytes) {
+        for (int i = Math.min(PREFIX_LENGTH, nameBytes.length - 1); i > 0; i--) {
+            if (nameBytes[i] == '/' && nameBytes.length - i - 1 <= NAME_LENGTH) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer createHeader(byte[] name, byte[] prefix, long size, char typeFlag, byte[] linkName) {
+        byte[] header = new byte[BLOCK_LENGTH];
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, modificationTime);
+        header[156] = (byte)typeFlag;
+        System.arraycopy(linkName, 0, header, 157, linkName.length);
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+        //the checksum is calculated with the checksum field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte headerByte : header) {
+            checksum += headerByte & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        return ByteBuffer.wrap(header);
+    }
+
+    //writes the value as zero padded octal number followed by a NUL character
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        if (octal.length() > length - 1) {
+            throw new InvalidFileException("Value " + value + " does not fit into a tar header.");
+        }
+        int position = offset;
+        for (int i = octal.length(); i < length - 1; i++) {
+            header[position++] = '0';
+        }
+        for (int i = 0; i < octal.length(); i++) {
+            header[position++] = (byte)octal.charAt(i);
+        }
+        header[position] = 0;
+    }
+
+    private void writePadding(long size) throws IOException {
+        int paddingLength = (int)((BLOCK_LENGTH - size % BLOCK_LENGTH) % BLOCK_LENGTH);
+        writeFully(ByteBuffer.allocate(paddingLength));
+    }
+
+    private void writeFully(ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            fileChannel.write(byteBuffer);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bithazard.game.grimrock.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+//Writes all files of a mod into one zip archive. The files are stored below a directory named like the mod, so that unpacking the archive
+//gives the same result as extracting into the file system.
+public class ZipSink implements OutputSink {
+    private final File archivePath;
+    private final String modDirectoryName;
+    private final ZipOutputStream zipOutputStream;
+    private final byte[] copyBuffer = new byte[65536];
+
+    public ZipSink(File archivePath, String modDirectoryName) throws IOException {
+        this.archivePath = archivePath;
+        this.modDirectoryName = modDirectoryName;
+        Files.createDirectories(archivePath.getAbsoluteFile().getParentFile().toPath());
+        OutputStream fileOutputStream = Files.newOutputStream(archivePath.toPath());
+        zipOutputStream = new ZipOutputStream(new BufferedOutputStream(fileOutputStream, 1 << 20));
+    }
+
+    @Override
+    public synchronized void writeFile(String path, long size, FileContent fileContent) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(modDirectoryName + "/" + path);
+        zipOutputStream.putNextEntry(zipEntry);
+        fileContent.writeTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                int length = source.remaining();
+                while (source.hasRemaining()) {
+                    int copyLength = Math.min(copyBuffer.length, source.remaining());
+                    source.get(copyBuffer, 0, copyLength);
+                    zipOutputStream.write(copyBuffer, 0, copyLength);
+                }
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        zipOutputStream.closeEntry();
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    @Override
+    public String getLocation(String path) {
+        return archivePath + "!/" + modDirectoryName + "/" + path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipOutputStream.close();
+    }
+}
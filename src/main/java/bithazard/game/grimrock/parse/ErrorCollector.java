@@ -1,23 +1,61 @@
 package bithazard.game.grimrock.parse;
 
+import bithazard.game.grimrock.resolve.ResourceHashIndex;
 import bithazard.game.grimrock.utils.FileUtils;
-import bithazard.game.grimrock.utils.LuaUtils;
 import org.luaj.vm2.ast.Exp;
 import org.luaj.vm2.parser.Token;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class ErrorCollector {
-    private static final Pattern START_OF_LINE = Pattern.compile("(?m)^");
-    private final Set<Error> errors = new LinkedHashSet<>();
+    public static final int DEFAULT_MAX_SNIPPET_LENGTH = 2000;
+    private static final String SNIPPET_INDENTATION = "        ";
+    private final List<Error> errors = new ArrayList<>();
     private final String filename;
     private final int lineOffset;
     private final int columnOffset;
+    private final boolean relative;
+    //embedded script the syntax elements of added errors belong to, null if they belong to the file of the collector
+    private final String script;
+
+    public enum ErrorMessage {
+        READ_ERROR("Read error: "),
+        PARSE_FAILED("Parse failed: "),
+        PARSING_ERROR("Parsing error: "),
+        SKIPPED_UNSUPPORTED_SYNTAX("Skipped unsupported syntax: "),
+        TABLE_FIELD_NOT_STRING("Error parsing table field. Expected constant expression (string)."),
+        TABLE_FIELD_NOT_TABLE("Error parsing table field. Expected table constructor."),
+        TABLE_FIELD_NOT_STRING_OR_TABLE("Error parsing table field. Expected constant expression or table constructor."),
+        TABLE_FIELD_NOT_SCRIPT("Error parsing table field. Expected constant expression (script)."),
+        ARGUMENT_NOT_STRING("Error parsing argument. Expected constant expression (string)"),
+        ARGUMENT_NOT_SCRIPT("Error parsing argument. Expected constant expression (script)"),
+        DYNAMIC_FUNCTION_CALL("Unable to determine name of dynamic function call: "),
+        UNKNOWN_FUNCTION_NAME("Could not determine function name ");
+
+        private final String text;
+
+        ErrorMessage(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    //returns the Lua file as it has been parsed (decoded and without byte order mark), null if it is not available
+    public interface SourceReader {
+        String read(String filename) throws IOException;
+    }
 
     private static final class Position {
         private final int lineNumber;
@@ -37,33 +75,184 @@ public class ErrorCollector {
         }
     }
 
+    //part of a Lua file or of an embedded script, given by the first and the last character like the positions of the LuaJ parser
+    private static final class SourceRange {
+        private final String script;
+        private final int beginLine;
+        private final int beginColumn;
+        private final int endLine;
+        private final int endColumn;
+
+        private SourceRange(String script, int beginLine, int beginColumn, int endLine, int endColumn) {
+            this.script = script;
+            this.beginLine = beginLine;
+            this.beginColumn = beginColumn;
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+        }
+
+        //The parser records the begin of operations and suffixed expressions after their first operand, so the begin of the first operand
+        //is used. Columns are stored as short by the parser.
+        private static SourceRange create(String script, Exp syntaxElement) {
+            Exp firstElement = syntaxElement;
+            while (true) {
+                if (firstElement instanceof Exp.BinopExp) {
+                    firstElement = ((Exp.BinopExp)firstElement).lhs;
+                } else if (firstElement instanceof Exp.FuncCall) {
+                    firstElement = ((Exp.FuncCall)firstElement).lhs;
+                } else if (firstElement instanceof Exp.IndexExp) {
+                    firstElement = ((Exp.IndexExp)firstElement).lhs;
+                } else if (firstElement instanceof Exp.FieldExp) {
+                    firstElement = ((Exp.FieldExp)firstElement).lhs;
+                } else {
+                    break;
+                }
+            }
+            if (firstElement.beginLine <= 0 || syntaxElement.endLine < firstElement.beginLine) {
+                return null;
+            }
+            return new SourceRange(script, firstElement.beginLine, firstElement.beginColumn & 0xffff, syntaxElement.endLine,
+                    syntaxElement.endColumn & 0xffff);
+        }
+    }
+
+    //The message is stored as id and the code snippet as the range of the syntax element in the parsed code. Both are only turned into text
+    //when the error is printed, so that neither the syntax tree nor rendered snippets are kept until then.
     private static final class Error {
+        private final String filename;
         private final Position position;
-        private final String message;
-        private String filename;
+        private final ErrorMessage message;
+        //variable part of the message, either text or a part of the code
+        private final String detail;
+        private final SourceRange detailRange;
+        private final SourceRange snippetRange;
+        //the offsets of the collector the error is finally added to still have to be applied to the position
+        private final boolean relativePosition;
 
-        private Error(String filename, String message) {
+        private Error(String filename, Position position, ErrorMessage message, String detail, SourceRange detailRange, SourceRange snippetRange,
+                      boolean relativePosition) {
             this.filename = filename;
-            this.position = null;
+            this.position = position;
             this.message = message;
+            this.detail = detail;
+            this.detailRange = detailRange;
+            this.snippetRange = snippetRange;
+            this.relativePosition = relativePosition;
         }
 
-        private Error(String filename, int lineNumber, int columnNumber, String message) {
-            this.filename = filename;
-            this.position = new Position(lineNumber, columnNumber);
-            this.message = message;
+        private Error withPosition(String filename, Position position, boolean relativePosition) {
+            return new Error(filename, position, message, detail, detailRange, snippetRange, relativePosition);
         }
 
-        public void setFilename(String filename) {
-            this.filename = filename;
+        private String render(ResourceHashIndex resourceHashes, int maxSnippetLength, SourceTexts sourceTexts) throws IOException {
+            String displayedFilename = resolveFilename(filename, resourceHashes);
+            StringBuilder renderedMessage = new StringBuilder(message.getText());
+            if (detail != null) {
+                renderedMessage.append(detail);
+            }
+            if (detailRange != null) {
+                String renderedDetail = sourceTexts.render(filename, detailRange, "", maxSnippetLength);
+                renderedMessage.append(renderedDetail != null ? renderedDetail : "");
+            }
+            if (snippetRange != null) {
+                String snippet = sourceTexts.render(filename, snippetRange, SNIPPET_INDENTATION, maxSnippetLength);
+                if (snippet != null) {
+                    renderedMessage.append('\n').append(SNIPPET_INDENTATION).append(snippet);
+                }
+            }
+            if (position == null) {
+                return "(" + displayedFilename + ") " + renderedMessage;
+            }
+            return "(" + displayedFilename + ":" + position.getLineNumber() + ":" + position.getColumnNumber() + ") " + renderedMessage;
         }
 
         @Override
         public String toString() {
-            if (position == null) {
-                return "(" + filename + ") " + message;
+            try {
+                return render(null, DEFAULT_MAX_SNIPPET_LENGTH, new SourceTexts(null));
+            } catch (IOException e) {
+                throw new AssertionError("Nothing is read without a source reader", e);
+            }
+        }
+    }
+
+    //text of a file or script with the start of every line. Lines end with \n, \r\n or \r like for the LuaJ parser.
+    private static final class SourceText {
+        private final String text;
+        private final int[] lineStarts;
+
+        private SourceText(String text) {
+            this.text = text;
+            int[] foundLineStarts = new int[16];
+            int lineCount = 1;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n')) {
+                    if (lineCount == foundLineStarts.length) {
+                        foundLineStarts = Arrays.copyOf(foundLineStarts, lineCount * 2);
+                    }
+                    foundLineStarts[lineCount++] = i + 1;
+                }
+            }
+            lineStarts = Arrays.copyOf(foundLineStarts, lineCount);
+        }
+
+        //every line after the first is prefixed with the indentation. Rendering stops as soon as the result is longer than maxLength
+        //characters, in which case the result is cut and ends with "...".
+        private String render(SourceRange sourceRange, String indentation, int maxLength) {
+            if (sourceRange.endLine > lineStarts.length) {
+                return null;
+            }
+            int begin = Math.min(lineStarts[sourceRange.beginLine - 1] + sourceRange.beginColumn - 1, text.length());
+            int end = Math.min(lineStarts[sourceRange.endLine - 1] + sourceRange.endColumn, text.length());
+            //the begin recorded by the parser is often the token in front of the element, e.g. the = of a table field
+            while (begin < end && (Character.isWhitespace(text.charAt(begin)) || "=,;".indexOf(text.charAt(begin)) != -1)) {
+                begin++;
+            }
+            StringBuilder stringBuilder = new StringBuilder();
+            for (int i = begin; i < end && stringBuilder.length() <= maxLength; i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || c == '\r' && (i + 1 == end || text.charAt(i + 1) != '\n')) {
+                    stringBuilder.append('\n').append(indentation);
+                } else if (c != '\r') {
+                    stringBuilder.append(c);
+                }
             }
-            return "(" + filename + ":" + position.getLineNumber() + ":" + position.getColumnNumber() + ") " + message;
+            if (stringBuilder.length() > maxLength) {
+                stringBuilder.setLength(maxLength);
+                stringBuilder.append("...");
+            }
+            return stringBuilder.toString();
+        }
+    }
+
+    //Texts of the files and embedded scripts the printed errors refer to. The errors of a file are printed one after the other, so only the
+    //file of the previous error is kept.
+    private static final class SourceTexts {
+        private final SourceReader sourceReader;
+        private final Map<String, SourceText> scriptTexts = new IdentityHashMap<>();
+        private String filename;
+        private SourceText fileText;
+
+        private SourceTexts(SourceReader sourceReader) {
+            this.sourceReader = sourceReader;
+        }
+
+        private String render(String filename, SourceRange sourceRange, String indentation, int maxLength) throws IOException {
+            SourceText sourceText;
+            if (sourceRange.script != null) {
+                sourceText = scriptTexts.computeIfAbsent(sourceRange.script, SourceText::new);
+            } else if (sourceReader == null || filename == null) {
+                return null;
+            } else {
+                if (!filename.equals(this.filename)) {
+                    String text = sourceReader.read(filename);
+                    this.filename = filename;
+                    fileText = text != null ? new SourceText(text) : null;
+                }
+                sourceText = fileText;
+            }
+            return sourceText != null ? sourceText.render(sourceRange, indentation, maxLength) : null;
         }
     }
 
@@ -72,66 +261,246 @@ public class ErrorCollector {
     }
 
     public ErrorCollector(String filename) {
-        this(filename, 1, 1);
+        this(filename, 1, 1, false, null);
     }
 
-    private ErrorCollector(String filename, int lineOffset, int columnOffset) {
+    private ErrorCollector(String filename, int lineOffset, int columnOffset, boolean relative, String script) {
         this.filename = filename;
         this.lineOffset = lineOffset;
         this.columnOffset = columnOffset;
+        this.relative = relative;
+        this.script = script;
+    }
+
+    //records errors of an embedded script without filename and with positions relative to the script, so that they can be added to any
+    //collector later on
+    public static ErrorCollector createRelativeErrorCollector(String script) {
+        return new ErrorCollector(null, 0, 0, true, script);
     }
 
     public ErrorCollector createSubErrorCollector(int lineOffset, int columnOffset) {
-        return new ErrorCollector(filename, lineOffset, columnOffset);
+        return new ErrorCollector(filename, lineOffset, columnOffset, false, script);
+    }
+
+    //errors of the returned collector are only kept if they are added to this collector with addAllErrors
+    public ErrorCollector createTemporaryErrorCollector() {
+        return new ErrorCollector(filename, lineOffset, columnOffset, relative, script);
     }
 
     public boolean hasErrors() {
         return !errors.isEmpty();
     }
 
+    //snippets of the files of the errors are not shown
     public Collection<String> getErrors() {
-        return errors.stream().map(Error::toString).collect(Collectors.toList());
+        List<String> renderedErrors = new ArrayList<>(errors.size());
+        for (Error error : errors) {
+            renderedErrors.add(error.toString());
+        }
+        return renderedErrors;
+    }
+
+    //the source reader is only called for errors that show a part of their file
+    public Collection<String> getErrors(ResourceHashIndex resourceHashes, int maxSnippetLength, SourceReader sourceReader) throws IOException {
+        SourceTexts sourceTexts = new SourceTexts(sourceReader);
+        List<String> renderedErrors = new ArrayList<>(errors.size());
+        for (Error error : errors) {
+            renderedErrors.add(error.render(resourceHashes, maxSnippetLength, sourceTexts));
+        }
+        return renderedErrors;
+    }
+
+    public void addError(ErrorMessage message) {
+        addError(message, (String)null);
     }
 
-    public void addError(String message) {
-        errors.add(new Error(filename, message));
+    public void addError(ErrorMessage message, String detail) {
+        errors.add(new Error(filename, null, message, detail, null, null, false));
     }
 
-    public void addError(String message, Exp syntaxElement) {
+    public void addError(ErrorMessage message, Exp syntaxElement) {
+        addError(message, (String)null, syntaxElement);
+    }
+
+    public void addError(ErrorMessage message, String detail, Exp syntaxElement) {
         if (syntaxElement == null) {
-            addError(message);
+            addError(message, detail);
         } else {
-            String codeSnippet = START_OF_LINE.matcher(LuaUtils.expToString(syntaxElement)).replaceAll("        ");
-            errors.add(createErrorWithOffset(syntaxElement.beginLine - 1, syntaxElement.beginColumn, message + "\n" + codeSnippet));
+            errors.add(createErrorWithOffset(syntaxElement.beginLine - 1, syntaxElement.beginColumn, message, detail, null,
+                    SourceRange.create(script, syntaxElement)));
         }
     }
 
-    public void addError(String message, Token token) {
-        errors.add(createErrorWithOffset(token.beginLine, token.beginColumn, message));
+    //the detail element is shown as part of the message
+    public void addError(ErrorMessage message, Exp detailElement, Exp syntaxElement) {
+        errors.add(createErrorWithOffset(syntaxElement.beginLine - 1, syntaxElement.beginColumn, message, null,
+                SourceRange.create(script, detailElement), SourceRange.create(script, syntaxElement)));
+    }
+
+    public void addError(ErrorMessage message, String detail, int lineNumber, int columnNumber) {
+        errors.add(createErrorWithOffset(lineNumber - 1, columnNumber, message, detail, null, null));
+    }
+
+    public void addError(ErrorMessage message, String detail, Token token) {
+        errors.add(createErrorWithOffset(token.beginLine, token.beginColumn, message, detail, null, null));
+    }
+
+    //number of characters of the message details and of embedded scripts other than the one of this collector that are kept by the errors
+    long getRetainedLength() {
+        long retainedLength = 0;
+        Map<String, Boolean> retainedScripts = new IdentityHashMap<>();
+        for (Error error : errors) {
+            retainedLength += error.detail != null ? error.detail.length() : 0;
+            for (SourceRange sourceRange : new SourceRange[] {error.detailRange, error.snippetRange}) {
+                if (sourceRange != null && sourceRange.script != null && sourceRange.script != script
+                        && retainedScripts.put(sourceRange.script, Boolean.TRUE) == null) {
+                    retainedLength += sourceRange.script.length();
+                }
+            }
+        }
+        return retainedLength;
     }
 
     public void addAllErrors(ErrorCollector errorCollector) {
-        errors.addAll(errorCollector.getErrorsRaw());
+        errors.addAll(errorCollector.errors);
     }
 
-    public void updateFilenames(Map<String, String> resourceHashes) {
-        errors.forEach(error -> {
-            String filenameWithoutExtension = FileUtils.getFilenameWithoutExtension(error.filename);
-            String correctFilename = resourceHashes.get(filenameWithoutExtension);
-            if (correctFilename != null) {
-                error.setFilename(correctFilename);
+    //adds the errors of a relative collector as if they had been added to this collector directly
+    public void addRelativeErrors(ErrorCollector relativeErrorCollector) {
+        for (Error error : relativeErrorCollector.errors) {
+            if (error.position == null) {
+                errors.add(error.withPosition(filename, null, false));
+            } else if (error.relativePosition) {
+                errors.add(createErrorWithOffset(error.position.getLineNumber(), error.position.getColumnNumber(), error));
+            } else {
+                errors.add(error.withPosition(filename, error.position, false));
             }
-        });
+        }
     }
 
-    private Collection<Error> getErrorsRaw() {
-        return errors;
+    //The filename is not written, errors that are read get the filename of the collector they are read into. Embedded scripts that snippets
+    //are taken from are written once in front of the errors, snippets of the file itself can be taken from the same file again.
+    void writeErrors(DataOutputStream dataOutputStream) throws IOException {
+        Map<String, Integer> scriptIndexes = new IdentityHashMap<>();
+        List<String> scripts = new ArrayList<>();
+        for (Error error : errors) {
+            for (SourceRange sourceRange : new SourceRange[] {error.detailRange, error.snippetRange}) {
+                if (sourceRange != null && sourceRange.script != null && scriptIndexes.putIfAbsent(sourceRange.script, scripts.size()) == null) {
+                    scripts.add(sourceRange.script);
+                }
+            }
+        }
+        dataOutputStream.writeInt(scripts.size());
+        for (String script : scripts) {
+            writeNullableString(dataOutputStream, script);
+        }
+        dataOutputStream.writeInt(errors.size());
+        for (Error error : errors) {
+            dataOutputStream.writeBoolean(error.position != null);
+            if (error.position != null) {
+                dataOutputStream.writeInt(error.position.getLineNumber());
+                dataOutputStream.writeInt(error.position.getColumnNumber());
+            }
+            dataOutputStream.writeUTF(error.message.name());
+            writeNullableString(dataOutputStream, error.detail);
+            writeSourceRange(dataOutputStream, error.detailRange, scriptIndexes);
+            writeSourceRange(dataOutputStream, error.snippetRange, scriptIndexes);
+        }
     }
 
-    private Error createErrorWithOffset(int lineNumber, int columnNumber, String message) {
+    void readErrors(DataInputStream dataInputStream) throws IOException {
+        String[] scripts = new String[dataInputStream.readInt()];
+        for (int i = 0; i < scripts.length; i++) {
+            scripts[i] = readNullableString(dataInputStream);
+        }
+        int errorCount = dataInputStream.readInt();
+        for (int i = 0; i < errorCount; i++) {
+            Position position = null;
+            if (dataInputStream.readBoolean()) {
+                position = new Position(dataInputStream.readInt(), dataInputStream.readInt());
+            }
+            String messageName = dataInputStream.readUTF();
+            ErrorMessage message;
+            try {
+                message = ErrorMessage.valueOf(messageName);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown error message " + messageName, e);
+            }
+            String detail = readNullableString(dataInputStream);
+            SourceRange detailRange = readSourceRange(dataInputStream, scripts);
+            SourceRange snippetRange = readSourceRange(dataInputStream, scripts);
+            errors.add(new Error(filename, position, message, detail, detailRange, snippetRange, false));
+        }
+    }
+
+    private static void writeSourceRange(DataOutputStream dataOutputStream, SourceRange sourceRange, Map<String, Integer> scriptIndexes)
+            throws IOException {
+        dataOutputStream.writeBoolean(sourceRange != null);
+        if (sourceRange != null) {
+            dataOutputStream.writeInt(sourceRange.script != null ? scriptIndexes.get(sourceRange.script) : -1);
+            dataOutputStream.writeInt(sourceRange.beginLine);
+            dataOutputStream.writeInt(sourceRange.beginColumn);
+            dataOutputStream.writeInt(sourceRange.endLine);
+            dataOutputStream.writeInt(sourceRange.endColumn);
+        }
+    }
+
+    private static SourceRange readSourceRange(DataInputStream dataInputStream, String[] scripts) throws IOException {
+        if (!dataInputStream.readBoolean()) {
+            return null;
+        }
+        int scriptIndex = dataInputStream.readInt();
+        if (scriptIndex < -1 || scriptIndex >= scripts.length) {
+            throw new IOException("Invalid script index " + scriptIndex);
+        }
+        return new SourceRange(scriptIndex != -1 ? scripts[scriptIndex] : null, dataInputStream.readInt(), dataInputStream.readInt(),
+                dataInputStream.readInt(), dataInputStream.readInt());
+    }
+
+    //DataOutputStream.writeUTF is limited to 65535 bytes, which is not enough for scripts
+    static void writeNullableString(DataOutputStream dataOutputStream, String string) throws IOException {
+        if (string == null) {
+            dataOutputStream.writeInt(-1);
+            return;
+        }
+        byte[] stringBytes = string.getBytes(StandardCharsets.UTF_8);
+        dataOutputStream.writeInt(stringBytes.length);
+        dataOutputStream.write(stringBytes);
+    }
+
+    static String readNullableString(DataInputStream dataInputStream) throws IOException {
+        int length = dataInputStream.readInt();
+        if (length == -1) {
+            return null;
+        }
+        return new String(dataInputStream.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    //filenames of extracted files are the hash value of the real filename until the lookup table is known
+    private static String resolveFilename(String filename, ResourceHashIndex resourceHashes) {
+        if (filename == null || resourceHashes == null) {
+            return filename;
+        }
+        try {
+            String correctFilename = resourceHashes.get(Integer.parseUnsignedInt(FileUtils.getFilenameWithoutExtension(filename), 16));
+            return correctFilename != null ? correctFilename : filename;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return filename;
+        }
+    }
+
+    private Error createErrorWithOffset(int lineNumber, int columnNumber, ErrorMessage message, String detail, SourceRange detailRange,
+                                        SourceRange snippetRange) {
+        return createErrorWithOffset(lineNumber, columnNumber, new Error(filename, null, message, detail, detailRange, snippetRange, false));
+    }
+
+    private Error createErrorWithOffset(int lineNumber, int columnNumber, Error error) {
+        if (relative) {
+            return error.withPosition(filename, new Position(lineNumber, columnNumber), true);
+        }
         if (lineNumber == 0) {
-            return new Error(filename, lineOffset, columnOffset + columnNumber, message);
+            return error.withPosition(filename, new Position(lineOffset, columnOffset + columnNumber), false);
         }
-        return new Error(filename, lineOffset + lineNumber, columnNumber, message);
+        return error.withPosition(filename, new Position(lineOffset + lineNumber, columnNumber), false);
     }
 }
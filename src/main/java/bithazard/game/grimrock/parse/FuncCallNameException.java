@@ -1,7 +0,0 @@
-package bithazard.game.grimrock.parse;
-
-public class FuncCallNameException extends RuntimeException {
-    public FuncCallNameException(String message) {
-        super(message);
-    }
-}
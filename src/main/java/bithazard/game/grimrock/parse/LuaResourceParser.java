@@ -2,6 +2,7 @@ package bithazard.game.grimrock.parse;
 
 import bithazard.game.grimrock.utils.LuaUtils;
 import org.apache.commons.io.input.BOMInputStream;
+import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.ast.Chunk;
 import org.luaj.vm2.ast.Exp;
 import org.luaj.vm2.ast.TableConstructor;
@@ -14,8 +15,12 @@ import org.luaj.vm2.parser.TokenMgrException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.SequenceInputStream;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,25 +30,29 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public final class LuaResourceParser {
+    //has to be increased whenever a change of the parsers changes the found resource strings, so that cached parse results are not used
+    public static final int RULES_VERSION = 2;
     private static final byte[] NEWLINE_BYTES = "\n".getBytes(StandardCharsets.UTF_8);
     private static final Pattern FBX_FILE_ENDING = Pattern.compile("\\.fbx$");
     private static final Pattern TGA_FILE_ENDING = Pattern.compile("\\.tga$");
     private static final Pattern SEX_PLACEHOLDER = Pattern.compile("\\$sex");
-    private static final Map<String, BiFunction<Exp, ErrorCollector, Collection<String>>> TABLE_FIELD_PARSERS = new HashMap<>();
-    private static final Map<String, BiFunction<List<Exp>, ErrorCollector, Collection<String>>> METHOD_PARSERS = new HashMap<>();
-    private static final Map<String, BiFunction<List<Exp>, ErrorCollector, Collection<String>>> FUNCTION_PARSERS = new HashMap<>();
+    private final Map<String, BiFunction<Exp, ErrorCollector, Collection<String>>> tableFieldParsers = new HashMap<>();
+    private final Map<String, BiFunction<List<Exp>, ErrorCollector, Collection<String>>> methodParsers = new HashMap<>();
+    private final Map<String, BiFunction<List<Exp>, ErrorCollector, Collection<String>>> functionParsers = new HashMap<>();
+    private final SubScriptCache subScriptCache;
 
     private static final BiFunction<Exp, ErrorCollector, Collection<String>> SINGLE_VALUE_TABLE_FIELD_PARSER = (exp, errorCollector) -> {
         Exp unwrappedExp = LuaUtils.unwrapParensExp(exp);
         if (unwrappedExp instanceof Exp.Constant) {
             return Set.of(((Exp.Constant)unwrappedExp).value.toString());
         }
-        errorCollector.addError("Error parsing table field. Expected constant expression (string).", exp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.TABLE_FIELD_NOT_STRING, exp);
         return Collections.emptySet();
     };
 
@@ -52,7 +61,7 @@ public final class LuaResourceParser {
             List<TableField> tableFields = ((TableConstructor)exp).fields;
             return parseTableFields(tableFields);
         }
-        errorCollector.addError("Error parsing table field. Expected table constructor.", exp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.TABLE_FIELD_NOT_TABLE, exp);
         return Collections.emptySet();
     };
 
@@ -65,15 +74,15 @@ public final class LuaResourceParser {
             List<TableField> tableFields = ((TableConstructor)exp).fields;
             return parseTableFields(tableFields);
         }
-        errorCollector.addError("Error parsing table field. Expected constant expression or table constructor.", exp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.TABLE_FIELD_NOT_STRING_OR_TABLE, exp);
         return Collections.emptySet();
     };
 
-    private static final BiFunction<Exp, ErrorCollector, Collection<String>> CONTAINED_SCRIPT_TABLE_FIELD_PARSER = (exp, errorCollector) -> {
+    private final BiFunction<Exp, ErrorCollector, Collection<String>> containedScriptTableFieldParser = (exp, errorCollector) -> {
         if (exp instanceof Exp.Constant) {
             return parseSubScript((Exp.Constant)exp, errorCollector);
         }
-        errorCollector.addError("Error parsing table field. Expected constant expression (script).", exp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.TABLE_FIELD_NOT_SCRIPT, exp);
         return Collections.emptySet();
     };
 
@@ -82,16 +91,16 @@ public final class LuaResourceParser {
         if (methodArg1 instanceof Exp.Constant) {
             return Set.of(((Exp.Constant)methodArg1).value.toString());
         }
-        errorCollector.addError("Error parsing argument. Expected constant expression (string)", methodArg1);
+        errorCollector.addError(ErrorCollector.ErrorMessage.ARGUMENT_NOT_STRING, methodArg1);
         return Collections.emptySet();
     };
 
-    private static final BiFunction<List<Exp>, ErrorCollector, Collection<String>> PASSED_SCRIPT_METHOD_PARSER = (exps, errorCollector) -> {
+    private final BiFunction<List<Exp>, ErrorCollector, Collection<String>> passedScriptMethodParser = (exps, errorCollector) -> {
         Exp scriptExp = exps.get(0);
         if (scriptExp instanceof Exp.Constant) {
             return parseSubScript((Exp.Constant)scriptExp, errorCollector);
         }
-        errorCollector.addError("Error parsing argument. Expected constant expression (script)", scriptExp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.ARGUMENT_NOT_SCRIPT, scriptExp);
         return Collections.emptySet();
     };
 
@@ -120,58 +129,110 @@ public final class LuaResourceParser {
         return result;
     };
 
-    static {
-        TABLE_FIELD_PARSERS.put("animation", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_ANIMATION));
-        TABLE_FIELD_PARSERS.put("animations", MULTI_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_ANIMATION));
-        TABLE_FIELD_PARSERS.put("model", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
-        TABLE_FIELD_PARSERS.put("emitterMesh", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
-        TABLE_FIELD_PARSERS.put("gfxAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("diffuseMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("specularMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("normalMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("emissiveMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("displacementMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("iconAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("texture", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("spellIconAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("image", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("portrait", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("shadeTex", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("inventoryBackground", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(RESOLVE_SEX_PLACEHOLDER).andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("clouds0Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("clouds1Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("clouds2Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("clouds3Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("cloudsRim1Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("cloudsRim2Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("cloudsRim3Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        TABLE_FIELD_PARSERS.put("ScrollImage", SINGLE_VALUE_TABLE_FIELD_PARSER);
-        TABLE_FIELD_PARSERS.put("filename", SINGLE_OR_MULTI_VALUE_TABLE_FIELD_PARSER);
-        TABLE_FIELD_PARSERS.put("source", CONTAINED_SCRIPT_TABLE_FIELD_PARSER);
-
-        METHOD_PARSERS.put("setModel", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
-        METHOD_PARSERS.put("setGfxAtlas", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        METHOD_PARSERS.put("setTexture", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        METHOD_PARSERS.put("setImage", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        METHOD_PARSERS.put("setPortrait", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        METHOD_PARSERS.put("setEmitterMesh", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
-        METHOD_PARSERS.put("playScreenEffect", FIRST_ARGUMENT_METHOD_PARSER);
-        METHOD_PARSERS.put("loadFile", FIRST_ARGUMENT_METHOD_PARSER);
-        METHOD_PARSERS.put("setSource", PASSED_SCRIPT_METHOD_PARSER);
-
-        FUNCTION_PARSERS.put("drawImage", FIRST_ARGUMENT_FUNCTION_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        FUNCTION_PARSERS.put("showImage", FIRST_ARGUMENT_FUNCTION_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
-        FUNCTION_PARSERS.put("import", FIRST_ARGUMENT_FUNCTION_PARSER);
-        FUNCTION_PARSERS.put("completeGame", FIRST_ARGUMENT_FUNCTION_PARSER);
-        FUNCTION_PARSERS.put("playVideo", FIRST_ARGUMENT_FUNCTION_PARSER);
+    public LuaResourceParser() {
+        this(new SubScriptCache());
+    }
+
+    //the same scripts are often embedded in many objects of a dungeon and in several mods of a batch, so the cache can be shared by the
+    //parsers of all mods of a run
+    public LuaResourceParser(SubScriptCache subScriptCache) {
+        this.subScriptCache = subScriptCache;
+        tableFieldParsers.put("animation", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_ANIMATION));
+        tableFieldParsers.put("animations", MULTI_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_ANIMATION));
+        tableFieldParsers.put("model", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
+        tableFieldParsers.put("emitterMesh", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
+        tableFieldParsers.put("gfxAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("diffuseMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("specularMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("normalMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("emissiveMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("displacementMap", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("iconAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("texture", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("spellIconAtlas", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("image", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("portrait", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("shadeTex", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("inventoryBackground", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(RESOLVE_SEX_PLACEHOLDER).andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("clouds0Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("clouds1Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("clouds2Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("clouds3Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("cloudsRim1Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("cloudsRim2Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("cloudsRim3Map", SINGLE_VALUE_TABLE_FIELD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        tableFieldParsers.put("ScrollImage", SINGLE_VALUE_TABLE_FIELD_PARSER);
+        tableFieldParsers.put("filename", SINGLE_OR_MULTI_VALUE_TABLE_FIELD_PARSER);
+        tableFieldParsers.put("source", containedScriptTableFieldParser);
+
+        methodParsers.put("setModel", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
+        methodParsers.put("setGfxAtlas", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        methodParsers.put("setTexture", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        methodParsers.put("setImage", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        methodParsers.put("setPortrait", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        methodParsers.put("setEmitterMesh", FIRST_ARGUMENT_METHOD_PARSER.andThen(CHANGE_FILE_ENDING_TO_MODEL));
+        methodParsers.put("playScreenEffect", FIRST_ARGUMENT_METHOD_PARSER);
+        methodParsers.put("loadFile", FIRST_ARGUMENT_METHOD_PARSER);
+        methodParsers.put("setSource", passedScriptMethodParser);
+
+        functionParsers.put("drawImage", FIRST_ARGUMENT_FUNCTION_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        functionParsers.put("showImage", FIRST_ARGUMENT_FUNCTION_PARSER.andThen(CHANGE_FILE_ENDING_TO_DDS));
+        functionParsers.put("import", FIRST_ARGUMENT_FUNCTION_PARSER);
+        functionParsers.put("completeGame", FIRST_ARGUMENT_FUNCTION_PARSER);
+        functionParsers.put("playVideo", FIRST_ARGUMENT_FUNCTION_PARSER);
     }
 
     public Collection<String> findResourceStrings(InputStream inputStream, ErrorCollector errorCollector) {
+        byte[] luaBytes;
+        try (BOMInputStream bomInputStream = new BOMInputStream(inputStream, false)) {
+            luaBytes = bomInputStream.readAllBytes();
+        } catch (IOException e) {
+            errorCollector.addError(ErrorCollector.ErrorMessage.READ_ERROR, e.getMessage());
+            return new LinkedHashSet<>();
+        }
+        Reader luaReader = new InputStreamReader(new ByteArrayInputStream(luaBytes), StandardCharsets.UTF_8);
+        return findResourceStrings(luaReader, () -> luaBytes, errorCollector);
+    }
+
+    //the script as the parsers see it, e.g. to show the parts of it that errors refer to
+    public static String readScript(InputStream inputStream) throws IOException {
+        try (BOMInputStream bomInputStream = new BOMInputStream(inputStream, false)) {
+            return new String(bomInputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    //Scans the script while it is read, so that it is never completely in memory. Constructs that the token scanner cannot handle are
+    //reported as errors and skipped, because falling back to the syntax tree would require the whole script.
+    public Collection<String> scanResourceStrings(InputStream inputStream, ErrorCollector errorCollector) {
+        Collection<String> result = new LinkedHashSet<>();
+        try (BOMInputStream bomInputStream = new BOMInputStream(inputStream, false)) {
+            Reader luaReader = new InputStreamReader(bomInputStream, StandardCharsets.UTF_8);
+            new ResourceStringScanner(this, new LuaTokenizer(luaReader), errorCollector, result, true).scan();
+        } catch (IOException e) {
+            errorCollector.addError(ErrorCollector.ErrorMessage.READ_ERROR, e.getMessage());
+        }
+        return result;
+    }
+
+    //building the syntax tree is the most expensive part, so it is only done for code that the token scanner cannot handle
+    private Collection<String> findResourceStrings(Reader luaReader, Supplier<byte[]> luaBytesSupplier, ErrorCollector errorCollector) {
+        Collection<String> result = new LinkedHashSet<>();
+        ErrorCollector scanErrorCollector = errorCollector.createTemporaryErrorCollector();
+        try {
+            new ResourceStringScanner(this, new LuaTokenizer(luaReader), scanErrorCollector, result, false).scan();
+            errorCollector.addAllErrors(scanErrorCollector);
+            return result;
+        } catch (UnsupportedSyntaxException | IOException e) {
+            return parseResourceStrings(luaBytesSupplier.get(), errorCollector);
+        }
+    }
+
+    private Collection<String> parseResourceStrings(byte[] luaBytes, ErrorCollector errorCollector) {
         Collection<String> result = new LinkedHashSet<>();
         //LuaParser throws a TokenMgrError if an input ends with a comment (--), so we simply add a newline to the end
-        try (BOMInputStream bomInputStream = new BOMInputStream(inputStream, false);
+        try (ByteArrayInputStream luaInputStream = new ByteArrayInputStream(luaBytes);
             ByteArrayInputStream newLineInputStream = new ByteArrayInputStream(NEWLINE_BYTES)) {
-            LuaParser parser = new LuaParser(new SequenceInputStream(bomInputStream, newLineInputStream), StandardCharsets.UTF_8);
+            LuaParser parser = new LuaParser(new SequenceInputStream(luaInputStream, newLineInputStream), StandardCharsets.UTF_8);
             Chunk chunk = parser.Chunk();
 
             chunk.accept(new Visitor() {
@@ -181,7 +242,7 @@ public final class LuaResourceParser {
                     if (field.name == null) {
                         return;
                     }
-                    BiFunction<Exp, ErrorCollector, Collection<String>> tableFieldParser = TABLE_FIELD_PARSERS.get(field.name);
+                    BiFunction<Exp, ErrorCollector, Collection<String>> tableFieldParser = tableFieldParsers.get(field.name);
                     if (tableFieldParser != null) {
                         Collection<String> parseResult = tableFieldParser.apply(field.rhs, errorCollector);
                         result.addAll(parseResult);
@@ -195,7 +256,7 @@ public final class LuaResourceParser {
                     if (methodArgs == null) {
                         return;
                     }
-                    BiFunction<List<Exp>, ErrorCollector, Collection<String>> methodParser = METHOD_PARSERS.get(methodCall.name);
+                    BiFunction<List<Exp>, ErrorCollector, Collection<String>> methodParser = methodParsers.get(methodCall.name);
                     if (methodParser != null) {
                         Collection<String> parseResult = methodParser.apply(methodArgs, errorCollector);
                         result.addAll(parseResult);
@@ -209,14 +270,11 @@ public final class LuaResourceParser {
                     if (functionArgs == null) {
                         return;
                     }
-                    String functionName;
-                    try {
-                        functionName = findFunctionName(funcCall);
-                    } catch (FuncCallNameException e) {
-                        errorCollector.addError(e.getMessage(), funcCall);
+                    String functionName = findFunctionName(funcCall, errorCollector);
+                    if (functionName == null) {
                         return;
                     }
-                    BiFunction<List<Exp>, ErrorCollector, Collection<String>> functionParser = FUNCTION_PARSERS.get(functionName);
+                    BiFunction<List<Exp>, ErrorCollector, Collection<String>> functionParser = functionParsers.get(functionName);
                     if (functionParser != null) {
                         Collection<String> parseResult = functionParser.apply(functionArgs, errorCollector);
                         result.addAll(parseResult);
@@ -224,16 +282,22 @@ public final class LuaResourceParser {
                 }
             });
         } catch (ParseException e) {
-            errorCollector.addError("Parse failed: " + e.getMessage(), e.currentToken);
+            //some errors are detected after the tokens are consumed (e.g. a statement that is neither a call nor an assignment) and have no token
+            if (e.currentToken != null) {
+                errorCollector.addError(ErrorCollector.ErrorMessage.PARSE_FAILED, e.getMessage(), e.currentToken);
+            } else {
+                errorCollector.addError(ErrorCollector.ErrorMessage.PARSE_FAILED, e.getMessage());
+            }
         } catch (TokenMgrException e) {
-            errorCollector.addError("Parsing error: " + e.getMessage());
+            errorCollector.addError(ErrorCollector.ErrorMessage.PARSING_ERROR, e.getMessage());
         } catch (IOException e) {
-            errorCollector.addError("Read error: " + e.getMessage());
+            errorCollector.addError(ErrorCollector.ErrorMessage.READ_ERROR, e.getMessage());
         }
         return result;
     }
 
-    private String findFunctionName(Exp.FuncCall exp) {
+    //returns null if the name cannot be determined, which is reported as error
+    private static String findFunctionName(Exp.FuncCall exp, ErrorCollector errorCollector) {
         if (exp.lhs instanceof Exp.NameExp) {
             return ((Exp.NameExp)exp.lhs).name.name;
         }
@@ -242,17 +306,24 @@ public final class LuaResourceParser {
             return fieldExp.name.name;
         }
         if (exp.lhs instanceof Exp.IndexExp) {
-            Exp.IndexExp indexExp = (Exp.IndexExp)exp.lhs;
-            throw new FuncCallNameException("Unable to determine name of dynamic function call: " + LuaUtils.expToString(indexExp));
+            errorCollector.addError(ErrorCollector.ErrorMessage.DYNAMIC_FUNCTION_CALL, exp.lhs, exp);
+            return null;
         }
-        throw new FuncCallNameException("Could not determine function name " + exp);
+        errorCollector.addError(ErrorCollector.ErrorMessage.UNKNOWN_FUNCTION_NAME, String.valueOf(exp), exp);
+        return null;
     }
 
-    private static Collection<String> parseSubScript(Exp.Constant exp, ErrorCollector errorCollector) {
+    private Collection<String> parseSubScript(Exp.Constant exp, ErrorCollector errorCollector) {
         String fieldValue = exp.value.toString();
-        ByteArrayInputStream fieldValueInputStream = new ByteArrayInputStream(fieldValue.getBytes(StandardCharsets.UTF_8));
         ErrorCollector subErrorCollector = errorCollector.createSubErrorCollector(exp.beginLine, exp.beginColumn);
-        Collection<String> resourceStrings = new LuaResourceParser().findResourceStrings(fieldValueInputStream, subErrorCollector);
+        Collection<String> resourceStrings = subScriptCache.get(fieldValue, subErrorCollector);
+        if (resourceStrings == null) {
+            ErrorCollector relativeErrorCollector = ErrorCollector.createRelativeErrorCollector(fieldValue);
+            //the script is only encoded again if the syntax tree has to be built
+            resourceStrings = subScriptCache.put(fieldValue, findResourceStrings(new StringReader(fieldValue),
+                    () -> fieldValue.getBytes(StandardCharsets.UTF_8), relativeErrorCollector), relativeErrorCollector);
+            subErrorCollector.addRelativeErrors(relativeErrorCollector);
+        }
         errorCollector.addAllErrors(subErrorCollector);
         return resourceStrings;
     }
@@ -266,4 +337,653 @@ public final class LuaResourceParser {
         }
         return result;
     }
+
+    //Finds resource strings directly in the token stream of a script. The syntax elements that are passed to the parsers above are created
+    //only for the matched values. Everything that cannot be handled exactly like the syntax tree based parser does (values that are not
+    //plain strings, calls of expressions that are not names, unbalanced brackets, tokens that do not fit into a statement, ...) results in
+    //an UnsupportedSyntaxException, unless the scanner reports unsupported syntax as an error and continues with the next token.
+    private static final class ResourceStringScanner {
+        private static final char TABLE = '{';
+        //the arguments of a call, an expression in parentheses is a group and the key of a table field in brackets is not an index
+        private static final char PARENTHESES = '(';
+        private static final char GROUP = 'g';
+        private static final char INDEX = '[';
+        private static final char TABLE_KEY = 'k';
+        //blocks are tracked like brackets, so that scripts with syntax errors in their structure are still parsed by the LuaJ parser, which
+        //reports the error. The condition of an if and the header of a loop are open until the then or do that has to follow them.
+        private static final char BLOCK = 'b';
+        private static final char IF_BLOCK = 'i';
+        private static final char ELSE_BLOCK = 'e';
+        private static final char REPEAT_BLOCK = 'r';
+        private static final char CONDITION = 'c';
+        private static final char LOOP_HEADER = 'l';
+        private static final Set<String> BINARY_OPERATORS = Set.of("+", "-", "*", "/", "%", "^", "..", "==", "~=", "<", "<=", ">", ">=");
+        private static final Set<String> STATEMENT_KEYWORDS = Set.of("local", "function", "if", "for", "while", "repeat", "do", "return",
+                "break", "goto");
+        private static final Set<String> BLOCK_END_KEYWORDS = Set.of("end", "else", "elseif", "until");
+        private final LuaResourceParser parser;
+        private final LuaTokenizer tokenizer;
+        private final ErrorCollector errorCollector;
+        private final Collection<String> result;
+        private final boolean reportUnsupportedSyntax;
+        private final List<LuaTokenizer.Token> lookahead = new ArrayList<>();
+        private final StringBuilder nesting = new StringBuilder();
+        private LuaTokenizer.Token previousToken;
+        private LuaTokenizer.Token currentToken;
+        //statements are checked as well, a token that does not fit into a statement is a syntax error that the LuaJ parser has to report
+        private Statement statement = Statement.START;
+        private final List<Statement> enclosingStatements = new ArrayList<>();
+        //the name or key in brackets that may be followed by = inside of brackets, i.e. in a table field or the header of a for loop
+        private LuaTokenizer.Token assignmentTarget;
+        //the last string that is the argument of a call, other strings cannot be indexed or called
+        private LuaTokenizer.Token callArgument;
+
+        //the part of a statement that was scanned last, only tracked for the tokens directly inside a block and not in brackets
+        private enum Statement {
+            START,
+            //a name or expression in parentheses with suffixes, which has to end with a call or become the target of an assignment
+            EXPRESSION,
+            CALL,
+            ASSIGNMENT_TARGETS,
+            LOCAL_NAMES,
+            LABEL,
+            //return has to be the last statement of a block, it can only be followed by one semicolon
+            RETURN,
+            RETURN_END,
+            //e.g. the values of an assignment or a statement that contains a block
+            OTHER,
+            //the rest of a statement in which unsupported syntax was skipped
+            UNKNOWN
+        }
+
+        private ResourceStringScanner(LuaResourceParser parser, LuaTokenizer tokenizer, ErrorCollector errorCollector, Collection<String> result,
+                                      boolean reportUnsupportedSyntax) {
+            this.parser = parser;
+            this.tokenizer = tokenizer;
+            this.errorCollector = errorCollector;
+            this.result = result;
+            this.reportUnsupportedSyntax = reportUnsupportedSyntax;
+        }
+
+        private void scan() throws IOException {
+            boolean endReached = false;
+            while (!endReached) {
+                try {
+                    endReached = scanToken(next());
+                } catch (UnsupportedSyntaxException e) {
+                    if (!reportUnsupportedSyntax) {
+                        throw e;
+                    }
+                    errorCollector.addError(ErrorCollector.ErrorMessage.SKIPPED_UNSUPPORTED_SYNTAX, e.getMessage(), e.getLineNumber(),
+                            e.getColumnNumber());
+                    statement = Statement.UNKNOWN;
+                }
+            }
+        }
+
+        private boolean scanToken(LuaTokenizer.Token token) throws IOException {
+            checkTokenSequence(token);
+            if (isStatementLevel()) {
+                scanStatementToken(token);
+            } else {
+                checkBracketToken(token);
+            }
+            switch (token.getKind()) {
+                case END:
+                    if (nesting.length() > 0) {
+                        //cleared so that a scan that continues after unsupported syntax does not report it again
+                        nesting.setLength(0);
+                        enclosingStatements.clear();
+                        throw unsupportedSyntax("Unclosed brackets or blocks at the end of the script", token);
+                    }
+                    return true;
+                case NAME:
+                    scanName(token);
+                    break;
+                case KEYWORD:
+                    scanKeyword(token);
+                    break;
+                case SYMBOL:
+                    scanSymbol(token);
+                    break;
+                case STRING:
+                case LONG_STRING:
+                    if (previousToken != null && isValueEnd(previousToken)) {
+                        callArgument = token;
+                    }
+                    checkNoCallOfResult(token);
+                    break;
+                default:
+                    break;
+            }
+            return false;
+        }
+
+        private void scanName(LuaTokenizer.Token nameToken) throws IOException {
+            String name = nameToken.getText();
+            if (previousToken != null && previousToken.isSymbol(":")) {
+                if (!isCallArguments(peek(0))) {
+                    throw unsupportedSyntax("Expected arguments of method call " + name, peek(0));
+                }
+                scanCallArguments(name, parser.methodParsers.get(name));
+                return;
+            }
+            LuaTokenizer.Token followingToken = peek(0);
+            if (followingToken.isSymbol("=") && isTableFieldStart()) {
+                scanTableFieldValue(name, parser.tableFieldParsers.get(name));
+            } else if (isCallArguments(followingToken)) {
+                scanCallArguments(name, parser.functionParsers.get(name));
+            }
+        }
+
+        private void scanKeyword(LuaTokenizer.Token keywordToken) throws IOException {
+            switch (keywordToken.getText()) {
+                case "function":
+                    //only a function statement has a name, a function expression is an operand
+                    skipFunctionHeader(previousToken == null || !isOperandExpected(previousToken));
+                    nesting.append(BLOCK);
+                    openBlock();
+                    break;
+                case "if":
+                    nesting.append(IF_BLOCK).append(CONDITION);
+                    openBlock();
+                    break;
+                case "elseif":
+                    checkNesting(IF_BLOCK, keywordToken);
+                    nesting.append(CONDITION);
+                    break;
+                case "else":
+                    checkNesting(IF_BLOCK, keywordToken);
+                    nesting.setCharAt(nesting.length() - 1, ELSE_BLOCK);
+                    break;
+                case "then":
+                    closeNesting(CONDITION, keywordToken);
+                    break;
+                case "while":
+                case "for":
+                    nesting.append(LOOP_HEADER);
+                    break;
+                case "do":
+                    //either the body of a loop or a block on its own
+                    if (isNested(LOOP_HEADER)) {
+                        nesting.setLength(nesting.length() - 1);
+                    }
+                    nesting.append(BLOCK);
+                    openBlock();
+                    break;
+                case "repeat":
+                    nesting.append(REPEAT_BLOCK);
+                    openBlock();
+                    break;
+                case "end":
+                    closeNesting(isNested(IF_BLOCK) ? IF_BLOCK : isNested(ELSE_BLOCK) ? ELSE_BLOCK : BLOCK, keywordToken);
+                    closeBlock();
+                    break;
+                case "until":
+                    closeNesting(REPEAT_BLOCK, keywordToken);
+                    closeBlock();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void scanSymbol(LuaTokenizer.Token symbolToken) throws IOException {
+            switch (symbolToken.getText()) {
+                case "{":
+                    nesting.append(TABLE);
+                    break;
+                case "(":
+                    nesting.append(previousToken != null && isValueEnd(previousToken) ? PARENTHESES : GROUP);
+                    break;
+                case "[":
+                    nesting.append(isTableFieldStart() ? TABLE_KEY : INDEX);
+                    break;
+                case "}":
+                    closeNesting(TABLE, symbolToken);
+                    checkNoCallOfResult(symbolToken);
+                    break;
+                case ")":
+                    closeNesting(isNested(GROUP) ? GROUP : PARENTHESES, symbolToken);
+                    checkNoCallOfResult(symbolToken);
+                    break;
+                case "]":
+                    if (isNested(TABLE_KEY)) {
+                        closeNesting(TABLE_KEY, symbolToken);
+                        assignmentTarget = symbolToken;
+                    } else {
+                        closeNesting(INDEX, symbolToken);
+                    }
+                    checkNoCallOfResult(symbolToken);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        //checks the token against the one before it, e.g. after an operator an operand has to follow and after a value no second value
+        private void checkTokenSequence(LuaTokenizer.Token token) {
+            if (previousToken == null) {
+                return;
+            }
+            if (previousToken == assignmentTarget && previousToken.isSymbol("]") && !token.isSymbol("=")) {
+                throw unsupportedSyntax("Expected = after the key of a table field", token);
+            }
+            if (previousToken.isSymbol(".") || previousToken.isSymbol(":") || previousToken.isKeyword("for")
+                    || previousToken.isKeyword("goto")) {
+                if (token.getKind() != LuaTokenizer.TokenKind.NAME) {
+                    throw unsupportedSyntax("Expected name", token);
+                }
+            } else if (previousToken.isKeyword("local")) {
+                if (token.getKind() != LuaTokenizer.TokenKind.NAME && !token.isKeyword("function")) {
+                    throw unsupportedSyntax("Expected name or function after local", token);
+                }
+            } else if (isOperandExpected(previousToken)) {
+                if (!isExpressionStart(token) && !isAllowedWithoutOperand(token)) {
+                    throw unsupportedSyntax("Expected expression", token);
+                }
+            } else if (isValueEnd(previousToken) || previousToken.isKeyword("end")) {
+                //e.g. 1 2 or a nil. Suffixes of tables are not checked, the table could be the argument of a call.
+                boolean literal = isLiteral(previousToken) || ((previousToken.getKind() == LuaTokenizer.TokenKind.STRING
+                        || previousToken.getKind() == LuaTokenizer.TokenKind.LONG_STRING) && previousToken != callArgument);
+                if (isOperandStartOnly(token) || (literal && (isCallArguments(token) || token.isSymbol("[") || token.isSymbol(".")
+                        || token.isSymbol(":")))) {
+                    throw unsupportedSyntax("Unexpected token after a value", token);
+                }
+            }
+        }
+
+        private boolean isAllowedWithoutOperand(LuaTokenizer.Token token) {
+            if (previousToken.isSymbol("(")) {
+                return token.isSymbol(")") && isNested(PARENTHESES);
+            }
+            if (previousToken.isKeyword("return")) {
+                return token.getKind() == LuaTokenizer.TokenKind.END || token.isSymbol(";") || isBlockEnd(token);
+            }
+            //empty tables, a separator after the last field and keys in brackets
+            return isNested(TABLE) && (previousToken.isSymbol("{") || previousToken.isSymbol(",") || previousToken.isSymbol(";"))
+                    && (token.isSymbol("}") || token.isSymbol("["));
+        }
+
+        private boolean isOperandExpected(LuaTokenizer.Token token) {
+            if (token.getKind() == LuaTokenizer.TokenKind.SYMBOL) {
+                return BINARY_OPERATORS.contains(token.getText()) || token.isSymbol("=") || token.isSymbol(",") || token.isSymbol("(")
+                        || token.isSymbol("[") || token.isSymbol("{") || token.isSymbol("#") || (token.isSymbol(";") && isNested(TABLE));
+            }
+            return token.isKeyword("and") || token.isKeyword("or") || token.isKeyword("not") || token.isKeyword("if")
+                    || token.isKeyword("elseif") || token.isKeyword("while") || token.isKeyword("until") || token.isKeyword("return")
+                    || token.isKeyword("in");
+        }
+
+        private static boolean isExpressionStart(LuaTokenizer.Token token) {
+            switch (token.getKind()) {
+                case NAME:
+                case NUMBER:
+                case STRING:
+                case LONG_STRING:
+                    return true;
+                case KEYWORD:
+                    return token.isKeyword("nil") || token.isKeyword("true") || token.isKeyword("false") || token.isKeyword("function")
+                            || token.isKeyword("not");
+                default:
+                    return token.isSymbol("...") || token.isSymbol("(") || token.isSymbol("{") || token.isSymbol("-") || token.isSymbol("#");
+            }
+        }
+
+        private static boolean isValueEnd(LuaTokenizer.Token token) {
+            return isLiteral(token) || token.getKind() == LuaTokenizer.TokenKind.NAME || token.getKind() == LuaTokenizer.TokenKind.STRING
+                    || token.getKind() == LuaTokenizer.TokenKind.LONG_STRING || token.isSymbol(")") || token.isSymbol("]") || token.isSymbol("}");
+        }
+
+        //values that cannot be called or indexed without parentheses
+        private static boolean isLiteral(LuaTokenizer.Token token) {
+            return token.getKind() == LuaTokenizer.TokenKind.NUMBER || token.isKeyword("nil") || token.isKeyword("true")
+                    || token.isKeyword("false") || token.isSymbol("...");
+        }
+
+        //tokens that start an operand but can neither continue an expression nor start a statement
+        private static boolean isOperandStartOnly(LuaTokenizer.Token token) {
+            return isLiteral(token) || token.isKeyword("not") || token.isSymbol("#");
+        }
+
+        private static boolean isBlockEnd(LuaTokenizer.Token token) {
+            return token.getKind() == LuaTokenizer.TokenKind.KEYWORD && BLOCK_END_KEYWORDS.contains(token.getText());
+        }
+
+        //checks a token directly inside of brackets, a condition or a loop header, which all contain expressions separated by commas
+        private void checkBracketToken(LuaTokenizer.Token token) {
+            if (token.getKind() == LuaTokenizer.TokenKind.NAME && (isTableFieldStart() || (previousToken != null
+                    && previousToken.isKeyword("for")))) {
+                assignmentTarget = token;
+            } else if (token.isSymbol("=") && previousToken != assignmentTarget) {
+                throw unsupportedSyntax("Unexpected =", token);
+            } else if (token.isSymbol(";") && !isNested(TABLE)) {
+                throw unsupportedSyntax("Unexpected ;", token);
+            } else if (token.isSymbol(",") && (isNested(GROUP) || isNested(INDEX) || isNested(TABLE_KEY) || isNested(CONDITION))) {
+                throw unsupportedSyntax("Unexpected ,", token);
+            } else if ((isValueEnd(previousToken) || previousToken.isKeyword("end")) && (token.getKind() == LuaTokenizer.TokenKind.NAME
+                    || (token.getKind() == LuaTokenizer.TokenKind.KEYWORD && STATEMENT_KEYWORDS.contains(token.getText())
+                    && !(token.isKeyword("do") && isNested(LOOP_HEADER))))) {
+                //e.g. a missing comma between two table fields
+                throw unsupportedSyntax("Expected operator or separator", token);
+            }
+        }
+
+        //statements are the tokens directly inside a block or the script, conditions, loop headers and brackets are part of them
+        private boolean isStatementLevel() {
+            return nesting.length() == 0 || isNested(BLOCK) || isNested(IF_BLOCK) || isNested(ELSE_BLOCK) || isNested(REPEAT_BLOCK);
+        }
+
+        private void scanStatementToken(LuaTokenizer.Token token) {
+            if (statement == Statement.LABEL) {
+                if (token.isSymbol("::")) {
+                    statement = Statement.START;
+                } else if (token.getKind() != LuaTokenizer.TokenKind.NAME) {
+                    throw unsupportedSyntax("Unexpected token in label", token);
+                }
+                return;
+            }
+            if (statement == Statement.RETURN_END && token.getKind() != LuaTokenizer.TokenKind.END && !isBlockEnd(token)) {
+                throw unsupportedSyntax("Statement after return", token);
+            }
+            if (statement != Statement.START && isStatementEnd(token)) {
+                finishStatement(token);
+                if (statement == Statement.RETURN_END) {
+                    return;
+                }
+            }
+            switch (statement) {
+                case START:
+                    startStatement(token);
+                    break;
+                case EXPRESSION:
+                case CALL:
+                case ASSIGNMENT_TARGETS:
+                    scanExpressionStatement(token);
+                    break;
+                case LOCAL_NAMES:
+                    if (token.isSymbol("=") || token.isKeyword("function")) {
+                        statement = Statement.OTHER;
+                    } else if (token.getKind() != LuaTokenizer.TokenKind.NAME && !token.isSymbol(",")) {
+                        throw unsupportedSyntax("Unexpected token in local declaration", token);
+                    }
+                    break;
+                case UNKNOWN:
+                    break;
+                default:
+                    if (token.isSymbol("=")) {
+                        throw unsupportedSyntax("Unexpected =", token);
+                    }
+                    break;
+            }
+        }
+
+        //a new statement can follow a value or the end of a block without a separator, an opening parenthesis after a value continues it
+        private boolean isStatementEnd(LuaTokenizer.Token token) {
+            if (token.getKind() == LuaTokenizer.TokenKind.END || token.isSymbol(";") || isBlockEnd(token)) {
+                return true;
+            }
+            if (previousToken == null) {
+                //only after unsupported characters at the beginning of the script
+                return true;
+            }
+            if (!isValueEnd(previousToken) && !previousToken.isKeyword("end")) {
+                return false;
+            }
+            if (token.getKind() == LuaTokenizer.TokenKind.NAME || token.isSymbol("::")
+                    || (token.getKind() == LuaTokenizer.TokenKind.KEYWORD && STATEMENT_KEYWORDS.contains(token.getText()))) {
+                return true;
+            }
+            return token.isSymbol("(") && previousToken.isKeyword("end");
+        }
+
+        private void finishStatement(LuaTokenizer.Token token) {
+            switch (statement) {
+                case EXPRESSION:
+                case ASSIGNMENT_TARGETS:
+                    throw unsupportedSyntax("Statement is neither a call nor an assignment", token);
+                case RETURN:
+                case RETURN_END:
+                    if (token.isSymbol(";") && statement == Statement.RETURN) {
+                        statement = Statement.RETURN_END;
+                        return;
+                    }
+                    if (token.getKind() != LuaTokenizer.TokenKind.END && !isBlockEnd(token)) {
+                        throw unsupportedSyntax("Statement after return", token);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            statement = Statement.START;
+        }
+
+        private void startStatement(LuaTokenizer.Token token) {
+            if (token.getKind() == LuaTokenizer.TokenKind.END || token.isSymbol(";") || isBlockEnd(token) || token.isKeyword("break")) {
+                return;
+            }
+            if (token.getKind() == LuaTokenizer.TokenKind.NAME || token.isSymbol("(")) {
+                statement = Statement.EXPRESSION;
+            } else if (token.isSymbol("::")) {
+                statement = Statement.LABEL;
+            } else if (token.isKeyword("local")) {
+                statement = Statement.LOCAL_NAMES;
+            } else if (token.isKeyword("return")) {
+                statement = Statement.RETURN;
+            } else if (token.getKind() == LuaTokenizer.TokenKind.KEYWORD && STATEMENT_KEYWORDS.contains(token.getText())) {
+                statement = Statement.OTHER;
+            } else {
+                throw unsupportedSyntax("Unexpected token at the start of a statement", token);
+            }
+        }
+
+        //the suffixes of a name: fields, indexes and calls, until an assignment or the next statement
+        private void scanExpressionStatement(LuaTokenizer.Token token) {
+            if (token.isSymbol("=")) {
+                if (statement == Statement.CALL) {
+                    throw unsupportedSyntax("Assignment to a call", token);
+                }
+                statement = Statement.OTHER;
+            } else if (token.isSymbol(",")) {
+                if (statement == Statement.CALL) {
+                    throw unsupportedSyntax("Assignment to a call", token);
+                }
+                statement = Statement.ASSIGNMENT_TARGETS;
+            } else if (token.isSymbol(".") || token.isSymbol(":") || token.isSymbol("[")) {
+                if (statement == Statement.CALL) {
+                    statement = Statement.EXPRESSION;
+                }
+            } else if (isCallArguments(token)) {
+                if (statement == Statement.EXPRESSION) {
+                    statement = Statement.CALL;
+                }
+            } else if (token.getKind() != LuaTokenizer.TokenKind.NAME) {
+                throw unsupportedSyntax("Unexpected token in a statement that is neither a call nor an assignment", token);
+            }
+        }
+
+        private void openBlock() {
+            enclosingStatements.add(statement);
+            statement = Statement.START;
+        }
+
+        private void closeBlock() {
+            statement = enclosingStatements.isEmpty() ? Statement.UNKNOWN : enclosingStatements.remove(enclosingStatements.size() - 1);
+        }
+
+        //the name of a function definition would otherwise be taken for a function call
+        private void skipFunctionHeader(boolean named) throws IOException {
+            LuaTokenizer.Token token = next();
+            if ((token.getKind() == LuaTokenizer.TokenKind.NAME) != named) {
+                throw unsupportedSyntax(named ? "Expected name in function definition" : "Unexpected name of function expression", token);
+            }
+            if (named) {
+                //a method name can only be the last part
+                boolean method = false;
+                while (!method && (peek(0).isSymbol(".") || peek(0).isSymbol(":"))) {
+                    method = next().isSymbol(":");
+                    if (next().getKind() != LuaTokenizer.TokenKind.NAME) {
+                        throw unsupportedSyntax("Expected name in function definition", currentToken);
+                    }
+                }
+                token = next();
+            }
+            if (!token.isSymbol("(")) {
+                throw unsupportedSyntax("Expected parameter list of function definition", token);
+            }
+            //names separated by commas, optionally followed by ...
+            for (token = next(); !token.isSymbol(")"); token = next()) {
+                if (token.getKind() != LuaTokenizer.TokenKind.NAME && !token.isSymbol("...")) {
+                    throw unsupportedSyntax("Unexpected parameter of function definition", token);
+                }
+                if (!token.isSymbol("...") && peek(0).isSymbol(",") && !peek(1).isSymbol(")")) {
+                    next();
+                } else if (!peek(0).isSymbol(")")) {
+                    throw unsupportedSyntax("Unexpected parameter of function definition", peek(0));
+                }
+            }
+        }
+
+        private void scanCallArguments(String name, BiFunction<List<Exp>, ErrorCollector, Collection<String>> argumentParser)
+                throws IOException {
+            if (argumentParser == null) {
+                return;
+            }
+            LuaTokenizer.Token argumentToken = peek(0);
+            if (argumentToken.isSymbol("(")) {
+                argumentToken = peek(1);
+                if (argumentToken.isSymbol(")")) {
+                    return;
+                }
+                if (!peek(2).isSymbol(",") && !peek(2).isSymbol(")")) {
+                    throw unsupportedSyntax("First argument of " + name + " is not a plain string", argumentToken);
+                }
+            }
+            if (argumentToken.getKind() != LuaTokenizer.TokenKind.STRING) {
+                throw unsupportedSyntax("First argument of " + name + " is not a plain string", argumentToken);
+            }
+            result.addAll(argumentParser.apply(List.of(createConstant(argumentToken)), errorCollector));
+        }
+
+        private void scanTableFieldValue(String name, BiFunction<Exp, ErrorCollector, Collection<String>> tableFieldParser) throws IOException {
+            if (tableFieldParser == null) {
+                return;
+            }
+            LuaTokenizer.Token valueToken = peek(1);
+            if (valueToken.getKind() == LuaTokenizer.TokenKind.STRING && isTableFieldEnd(peek(2))) {
+                result.addAll(tableFieldParser.apply(createConstant(valueToken), errorCollector));
+                return;
+            }
+            if (!valueToken.isSymbol("{")) {
+                throw unsupportedSyntax("Value of table field " + name + " is not a plain string", valueToken);
+            }
+            //a parser that does not expect a table reports an error, which should contain the snippet of the real syntax tree
+            ErrorCollector tableErrorCollector = errorCollector.createTemporaryErrorCollector();
+            Collection<String> tableResult = tableFieldParser.apply(createTableConstructor(1), tableErrorCollector);
+            if (tableErrorCollector.hasErrors()) {
+                throw unsupportedSyntax("Unexpected table as value of table field " + name, valueToken);
+            }
+            result.addAll(tableResult);
+        }
+
+        //only tables with plain strings as values are supported, e.g. {"a", "b"} or {a = "a", b = "b"}. The index points to the opening brace.
+        private TableConstructor createTableConstructor(int openingBraceIndex) throws IOException {
+            List<TableField> tableFields = new ArrayList<>();
+            int index = openingBraceIndex + 1;
+            while (!peek(index).isSymbol("}")) {
+                LuaTokenizer.Token token = peek(index);
+                if (token.getKind() == LuaTokenizer.TokenKind.STRING) {
+                    tableFields.add(TableField.listField(createConstant(token)));
+                    index++;
+                } else if (token.getKind() == LuaTokenizer.TokenKind.NAME && peek(index + 1).isSymbol("=")
+                        && peek(index + 2).getKind() == LuaTokenizer.TokenKind.STRING) {
+                    tableFields.add(TableField.namedField(token.getText(), createConstant(peek(index + 2))));
+                    index += 3;
+                } else {
+                    throw unsupportedSyntax("Table contains more than plain strings", token);
+                }
+                if (peek(index).isSymbol(",") || peek(index).isSymbol(";")) {
+                    index++;
+                } else if (!peek(index).isSymbol("}")) {
+                    throw unsupportedSyntax("Table contains more than plain strings", peek(index));
+                }
+            }
+            TableConstructor tableConstructor = new TableConstructor();
+            tableConstructor.fields = tableFields;
+            return tableConstructor;
+        }
+
+        private boolean isTableFieldStart() {
+            return isNested(TABLE) && (previousToken.isSymbol("{") || previousToken.isSymbol(",") || previousToken.isSymbol(";"));
+        }
+
+        //checks the innermost bracket or block
+        private boolean isNested(char nestingType) {
+            return nesting.length() > 0 && nesting.charAt(nesting.length() - 1) == nestingType;
+        }
+
+        private static boolean isTableFieldEnd(LuaTokenizer.Token token) {
+            return token.isSymbol(",") || token.isSymbol(";") || token.isSymbol("}");
+        }
+
+        private static boolean isCallArguments(LuaTokenizer.Token token) {
+            return token.isSymbol("(") || token.isSymbol("{") || token.getKind() == LuaTokenizer.TokenKind.STRING
+                    || token.getKind() == LuaTokenizer.TokenKind.LONG_STRING;
+        }
+
+        //calls of anything else than a name (e.g. a["b"]() or a()()) are reported as errors by the syntax tree based parser
+        private void checkNoCallOfResult(LuaTokenizer.Token token) throws IOException {
+            if (isCallArguments(peek(0))) {
+                throw unsupportedSyntax("Call of an expression that is not a name", token);
+            }
+        }
+
+        private void checkNesting(char expectedNesting, LuaTokenizer.Token token) {
+            if (!isNested(expectedNesting)) {
+                throw unsupportedSyntax("Unbalanced brackets or blocks", token);
+            }
+        }
+
+        private void closeNesting(char expectedNesting, LuaTokenizer.Token token) {
+            if (nesting.length() == 0) {
+                throw unsupportedSyntax("Unbalanced brackets or blocks", token);
+            }
+            char closedNesting = nesting.charAt(nesting.length() - 1);
+            nesting.setLength(nesting.length() - 1);
+            if (closedNesting != expectedNesting) {
+                throw unsupportedSyntax("Unbalanced brackets or blocks", token);
+            }
+        }
+
+        private static Exp createConstant(LuaTokenizer.Token stringToken) {
+            if (stringToken.getText() == null) {
+                throw unsupportedSyntax("String with unsupported characters or escape sequences", stringToken);
+            }
+            Exp constant = Exp.constant(LuaValue.valueOf(stringToken.getText()));
+            constant.beginLine = stringToken.getBeginLine();
+            constant.beginColumn = (short)stringToken.getBeginColumn();
+            return constant;
+        }
+
+        private static UnsupportedSyntaxException unsupportedSyntax(String message, LuaTokenizer.Token token) {
+            return new UnsupportedSyntaxException(message, token.getBeginLine(), token.getBeginColumn());
+        }
+
+        private LuaTokenizer.Token next() throws IOException {
+            previousToken = currentToken;
+            currentToken = lookahead.isEmpty() ? tokenizer.nextToken() : lookahead.remove(0);
+            return currentToken;
+        }
+
+        private LuaTokenizer.Token peek(int index) throws IOException {
+            while (lookahead.size() <= index) {
+                LuaTokenizer.Token token = tokenizer.nextToken();
+                lookahead.add(token);
+                if (token.getKind() == LuaTokenizer.TokenKind.END) {
+                    return token;
+                }
+            }
+            return lookahead.get(index);
+        }
+    }
 }
@@ -0,0 +1,304 @@
+package bithazard.game.grimrock.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Set;
+
+//Splits Lua code into tokens without building a syntax tree. Line and column numbers are counted the same way as in the LuaJ parser (tabs
+//advance the column to the next multiple of 8), so that positions of tokens can be used wherever the parser would provide them.
+final class LuaTokenizer {
+    private static final Set<String> KEYWORDS = Set.of("and", "break", "do", "else", "elseif", "end", "false", "for", "function", "goto", "if",
+            "in", "local", "nil", "not", "or", "repeat", "return", "then", "true", "until", "while");
+    private static final Set<String> TWO_CHAR_SYMBOLS = Set.of("..", "==", "~=", "<=", ">=", "::");
+    private static final String SINGLE_CHAR_SYMBOLS = "+-*/%^#<>=(){}[];:,.";
+    private static final int TAB_SIZE = 8;
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder tokenText = new StringBuilder();
+    private int bufferPosition;
+    private int bufferLength;
+    private int line = 1;
+    private int column;
+    private boolean previousCharIsCarriageReturn;
+    private boolean previousCharIsLineFeed;
+
+    enum TokenKind {
+        NAME, KEYWORD, NUMBER, STRING, LONG_STRING, SYMBOL, END
+    }
+
+    static final class Token {
+        private final TokenKind kind;
+        private final String text;
+        private final int beginLine;
+        private final int beginColumn;
+
+        private Token(TokenKind kind, String text, int beginLine, int beginColumn) {
+            this.kind = kind;
+            this.text = text;
+            this.beginLine = beginLine;
+            this.beginColumn = beginColumn;
+        }
+
+        TokenKind getKind() {
+            return kind;
+        }
+
+        //the decoded value for strings (null if it contains something else than ASCII characters and the common escape sequences)
+        String getText() {
+            return text;
+        }
+
+        int getBeginLine() {
+            return beginLine;
+        }
+
+        int getBeginColumn() {
+            return beginColumn;
+        }
+
+        boolean is(TokenKind kind, String text) {
+            return this.kind == kind && text.equals(this.text);
+        }
+
+        boolean isSymbol(String symbol) {
+            return is(TokenKind.SYMBOL, symbol);
+        }
+
+        boolean isKeyword(String keyword) {
+            return is(TokenKind.KEYWORD, keyword);
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + text + " (" + beginLine + ":" + beginColumn + ")";
+        }
+    }
+
+    LuaTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    Token nextToken() throws IOException {
+        skipWhitespaceAndComments();
+        int c = peekChar(0);
+        if (c == -1) {
+            return new Token(TokenKind.END, null, line, column);
+        }
+        readChar();
+        int beginLine = line;
+        int beginColumn = column;
+        if (isNameStart(c)) {
+            tokenText.setLength(0);
+            tokenText.append((char)c);
+            while (isNamePart(peekChar(0))) {
+                tokenText.append((char)readChar());
+            }
+            String name = tokenText.toString();
+            return new Token(KEYWORDS.contains(name) ? TokenKind.KEYWORD : TokenKind.NAME, name, beginLine, beginColumn);
+        }
+        if (isDigit(c) || (c == '.' && isDigit(peekChar(0)))) {
+            readNumber(c);
+            return new Token(TokenKind.NUMBER, tokenText.toString(), beginLine, beginColumn);
+        }
+        if (c == '"' || c == '\'') {
+            return new Token(TokenKind.STRING, readQuotedString((char)c), beginLine, beginColumn);
+        }
+        if (c == '[') {
+            int level = getLongBracketLevel(0);
+            if (level >= 0) {
+                readLongBracket(level);
+                return new Token(TokenKind.LONG_STRING, null, beginLine, beginColumn);
+            }
+        }
+        int next = peekChar(0);
+        if (c == '.' && next == '.' && peekChar(1) == '.') {
+            readChar();
+            readChar();
+            return new Token(TokenKind.SYMBOL, "...", beginLine, beginColumn);
+        }
+        if (next != -1) {
+            String twoCharSymbol = String.valueOf((char)c) + (char)next;
+            if (TWO_CHAR_SYMBOLS.contains(twoCharSymbol)) {
+                readChar();
+                return new Token(TokenKind.SYMBOL, twoCharSymbol, beginLine, beginColumn);
+            }
+        }
+        if (SINGLE_CHAR_SYMBOLS.indexOf(c) != -1) {
+            return new Token(TokenKind.SYMBOL, String.valueOf((char)c), beginLine, beginColumn);
+        }
+        throw new UnsupportedSyntaxException("Unexpected character '" + (char)c + "'", beginLine, beginColumn);
+    }
+
+    private void skipWhitespaceAndComments() throws IOException {
+        while (true) {
+            int c = peekChar(0);
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f' || c == 0x0b) {
+                readChar();
+            } else if (c == '-' && peekChar(1) == '-') {
+                readChar();
+                readChar();
+                int level = peekChar(0) == '[' ? getLongBracketLevel(1) : -1;
+                if (level >= 0) {
+                    readChar();
+                    readLongBracket(level);
+                } else {
+                    while (peekChar(0) != -1 && peekChar(0) != '\n' && peekChar(0) != '\r') {
+                        readChar();
+                    }
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readNumber(int firstChar) throws IOException {
+        tokenText.setLength(0);
+        tokenText.append((char)firstChar);
+        while (true) {
+            int c = peekChar(0);
+            char previous = tokenText.charAt(tokenText.length() - 1);
+            boolean isExponentSign = (c == '+' || c == '-') && (previous == 'e' || previous == 'E' || previous == 'p' || previous == 'P');
+            if (!isNamePart(c) && c != '.' && !isExponentSign) {
+                return;
+            }
+            tokenText.append((char)readChar());
+        }
+    }
+
+    private String readQuotedString(char quote) throws IOException {
+        tokenText.setLength(0);
+        boolean decodable = true;
+        while (true) {
+            int c = readChar();
+            if (c == -1 || c == '\n' || c == '\r') {
+                throw new UnsupportedSyntaxException("Unfinished string", line, column);
+            }
+            if (c == quote) {
+                return decodable ? tokenText.toString() : null;
+            }
+            if (c > 0x7f) {
+                decodable = false;
+            } else if (c != '\\') {
+                tokenText.append((char)c);
+            } else {
+                int escapedChar = readChar();
+                if (isDigit(escapedChar)) {
+                    int value = escapedChar - '0';
+                    for (int i = 0; i < 2 && isDigit(peekChar(0)); i++) {
+                        value = value * 10 + readChar() - '0';
+                    }
+                    decodable &= value <= 0x7f;
+                    tokenText.append((char)value);
+                    continue;
+                }
+                switch (escapedChar) {
+                    case 'a': tokenText.append('\u0007'); break;
+                    case 'b': tokenText.append('\b'); break;
+                    case 'f': tokenText.append('\f'); break;
+                    case 'n': case '\n': tokenText.append('\n'); break;
+                    case 'r': tokenText.append('\r'); break;
+                    case 't': tokenText.append('\t'); break;
+                    case 'v': tokenText.append('\u000b'); break;
+                    case '"': case '\'': case '\\': tokenText.append((char)escapedChar); break;
+                    case -1: throw new UnsupportedSyntaxException("Unfinished string", line, column);
+                    default: decodable = false;
+                }
+            }
+        }
+    }
+
+    //returns the number of equal signs of a long bracket ([[, [=[, ...) that starts at the given offset or -1 if there is no long bracket
+    private int getLongBracketLevel(int offset) throws IOException {
+        int level = 0;
+        while (peekChar(offset + level) == '=') {
+            level++;
+        }
+        return peekChar(offset + level) == '[' ? level : -1;
+    }
+
+    //reads the rest of a long bracket, after its first bracket
+    private void readLongBracket(int level) throws IOException {
+        for (int i = 0; i <= level; i++) {
+            readChar();
+        }
+        while (true) {
+            int c = readChar();
+            if (c == -1) {
+                throw new UnsupportedSyntaxException("Unfinished long string or comment", line, column);
+            }
+            if (c == ']') {
+                int closingLevel = 0;
+                while (closingLevel < level && peekChar(closingLevel) == '=') {
+                    closingLevel++;
+                }
+                if (closingLevel == level && peekChar(closingLevel) == ']') {
+                    for (int i = 0; i <= level; i++) {
+                        readChar();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private int peekChar(int offset) throws IOException {
+        while (bufferPosition + offset >= bufferLength) {
+            if (bufferPosition > 0) {
+                System.arraycopy(buffer, bufferPosition, buffer, 0, bufferLength - bufferPosition);
+                bufferLength -= bufferPosition;
+                bufferPosition = 0;
+            }
+            int readCount = reader.read(buffer, bufferLength, buffer.length - bufferLength);
+            if (readCount == -1) {
+                return -1;
+            }
+            bufferLength += readCount;
+        }
+        return buffer[bufferPosition + offset];
+    }
+
+    //line and column are updated like JavaCC does it in SimpleCharStream.UpdateLineColumn
+    private int readChar() throws IOException {
+        int c = peekChar(0);
+        if (c == -1) {
+            return -1;
+        }
+        bufferPosition++;
+        column++;
+        if (previousCharIsLineFeed) {
+            previousCharIsLineFeed = false;
+            line++;
+            column = 1;
+        } else if (previousCharIsCarriageReturn) {
+            previousCharIsCarriageReturn = false;
+            if (c == '\n') {
+                previousCharIsLineFeed = true;
+            } else {
+                line++;
+                column = 1;
+            }
+        }
+        if (c == '\r') {
+            previousCharIsCarriageReturn = true;
+        } else if (c == '\n') {
+            previousCharIsLineFeed = true;
+        } else if (c == '\t') {
+            column--;
+            column += TAB_SIZE - (column % TAB_SIZE);
+        }
+        return c;
+    }
+
+    private static boolean isNameStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isNamePart(int c) {
+        return isNameStart(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+}
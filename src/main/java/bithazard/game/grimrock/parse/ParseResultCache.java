@@ -0,0 +1,216 @@
+package bithazard.game.grimrock.parse;
+
+import bithazard.game.grimrock.utils.ByteUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+//Resource strings and errors of Lua files stored on disk, one file per entry. The name of an entry file consists of the length and the
+//CRC32C checksum of the Lua file, the parse mode and the rules version, the FNV-1a hash stored in the entry is compared as well before a
+//cached result is used. Scanning a file while it is inflated may find fewer resource strings than parsing it completely, so the results of
+//both modes are kept apart. Entries that have been used least recently are deleted when the cache grows larger than its maximum size,
+//which is checked against a running total of the written entries during a run. Several processes can share one cache directory.
+public class ParseResultCache {
+    private static final int MAGIC_NUMBER = 0x47505243; //"GPRC"
+    //has to be increased whenever the layout of the entry files changes
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_FILE_EXTENSION = ".cache";
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+    //temporary files that are older are left over by a process that did not finish writing them
+    private static final long STALE_TEMPORARY_FILE_AGE_MILLIS = 60 * 60 * 1000;
+    private static final int READ_BUFFER_LENGTH = 65536;
+    private final Path cacheDirectory;
+    private final long maxCacheSize;
+    //size of the entries when the directory was listed last plus the entries written since then. Entries written by other processes or
+    //replaced by this one make it inexact, it is corrected whenever entries are evicted.
+    private final AtomicLong cacheSize;
+
+    public static final class Key {
+        private final String entryFilename;
+        private final int fnv1aHash;
+        private final boolean streamed;
+
+        private Key(long length, int crc32c, int fnv1aHash, boolean streamed) {
+            this.entryFilename = Long.toHexString(length) + "-" + Integer.toHexString(crc32c) + (streamed ? "-streamed" : "-parsed") + "-r"
+                    + LuaResourceParser.RULES_VERSION + ENTRY_FILE_EXTENSION;
+            this.fnv1aHash = fnv1aHash;
+            this.streamed = streamed;
+        }
+    }
+
+    private static final class EntryFile {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private EntryFile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public ParseResultCache(Path cacheDirectory, long maxCacheSize) throws IOException {
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheSize = maxCacheSize;
+        Files.createDirectories(cacheDirectory);
+        //only measured, nothing is deleted before this process writes to the cache
+        cacheSize = new AtomicLong(deleteLeastRecentlyUsedEntries(Long.MAX_VALUE));
+    }
+
+    //streamed has to be true if the result is found by scanning the file while it is read instead of parsing it completely
+    public static Key createKey(byte[] luaBytes, boolean streamed) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(luaBytes);
+        return new Key(luaBytes.length, (int)crc32c.getValue(), ByteUtils.calculateFnv1aHash(luaBytes), streamed);
+    }
+
+    public static Key createKey(InputStream inputStream, boolean streamed) throws IOException {
+        CRC32C crc32c = new CRC32C();
+        int fnv1aHash = ByteUtils.getFnv1aOffsetBasis();
+        long length = 0;
+        byte[] buffer = new byte[READ_BUFFER_LENGTH];
+        int readCount;
+        while ((readCount = inputStream.read(buffer)) != -1) {
+            crc32c.update(buffer, 0, readCount);
+            fnv1aHash = ByteUtils.updateFnv1aHash(fnv1aHash, buffer, 0, readCount);
+            length += readCount;
+        }
+        return new Key(length, (int)crc32c.getValue(), fnv1aHash, streamed);
+    }
+
+    //returns null if there is no usable entry for the key
+    public Collection<String> get(Key key, ErrorCollector errorCollector) {
+        Path entryPath = cacheDirectory.resolve(key.entryFilename);
+        ErrorCollector cachedErrorCollector = errorCollector.createTemporaryErrorCollector();
+        Collection<String> resourceStrings = new LinkedHashSet<>();
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryPath)))) {
+            if (dataInputStream.readInt() != MAGIC_NUMBER || dataInputStream.readInt() != FORMAT_VERSION
+                    || dataInputStream.readInt() != LuaResourceParser.RULES_VERSION
+                    || dataInputStream.readBoolean() != key.streamed || dataInputStream.readInt() != key.fnv1aHash) {
+                return null;
+            }
+            int resourceStringCount = dataInputStream.readInt();
+            for (int i = 0; i < resourceStringCount; i++) {
+                resourceStrings.add(ErrorCollector.readNullableString(dataInputStream));
+            }
+            cachedErrorCollector.readErrors(dataInputStream);
+        } catch (IOException e) {
+            //missing, truncated or concurrently evicted entries are simply parsed again
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //the entry is still valid, it will only be evicted earlier
+        }
+        errorCollector.addAllErrors(cachedErrorCollector);
+        return resourceStrings;
+    }
+
+    public void put(Key key, Collection<String> resourceStrings, ErrorCollector errorCollector) throws IOException {
+        Path entryPath = cacheDirectory.resolve(key.entryFilename);
+        Path temporaryPath = Files.createTempFile(cacheDirectory, key.entryFilename, TEMPORARY_FILE_EXTENSION);
+        long entrySize;
+        try {
+            try (OutputStream fileOutputStream = Files.newOutputStream(temporaryPath);
+                 DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+                dataOutputStream.writeInt(MAGIC_NUMBER);
+                dataOutputStream.writeInt(FORMAT_VERSION);
+                dataOutputStream.writeInt(LuaResourceParser.RULES_VERSION);
+                dataOutputStream.writeBoolean(key.streamed);
+                dataOutputStream.writeInt(key.fnv1aHash);
+                dataOutputStream.writeInt(resourceStrings.size());
+                for (String resourceString : resourceStrings) {
+                    ErrorCollector.writeNullableString(dataOutputStream, resourceString);
+                }
+                errorCollector.writeErrors(dataOutputStream);
+                entrySize = dataOutputStream.size();
+            }
+            Files.move(temporaryPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+        if (cacheSize.addAndGet(entrySize) > maxCacheSize) {
+            evictDuringRun();
+        }
+    }
+
+    //deletes stale temporary files and the least recently used entries until the cache is not larger than its maximum size
+    public void evict() throws IOException {
+        deleteStaleTemporaryFiles();
+        cacheSize.set(deleteLeastRecentlyUsedEntries(maxCacheSize));
+    }
+
+    //more entries than necessary are deleted, so that the directory is not listed again for every entry that is written after this one
+    private synchronized void evictDuringRun() throws IOException {
+        if (cacheSize.get() > maxCacheSize) {
+            cacheSize.set(deleteLeastRecentlyUsedEntries(maxCacheSize / 4 * 3));
+        }
+    }
+
+    //returns the size of the remaining entries
+    private long deleteLeastRecentlyUsedEntries(long targetCacheSize) throws IOException {
+        List<Path> entryPaths = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(cacheDirectory, "*" + ENTRY_FILE_EXTENSION)) {
+            directoryStream.forEach(entryPaths::add);
+        }
+        long remainingSize = 0;
+        List<EntryFile> entryFiles = new ArrayList<>();
+        for (Path entryPath : entryPaths) {
+            try {
+                EntryFile entryFile = new EntryFile(entryPath, Files.size(entryPath), Files.getLastModifiedTime(entryPath).toMillis());
+                entryFiles.add(entryFile);
+                remainingSize += entryFile.size;
+            } catch (NoSuchFileException e) {
+                //evicted by another process
+            }
+        }
+        if (remainingSize <= targetCacheSize) {
+            return remainingSize;
+        }
+        entryFiles.sort(Comparator.comparingLong((EntryFile entryFile) -> entryFile.lastModified));
+        for (EntryFile entryFile : entryFiles) {
+            if (remainingSize <= targetCacheSize) {
+                break;
+            }
+            Files.deleteIfExists(entryFile.path);
+            remainingSize -= entryFile.size;
+        }
+        return remainingSize;
+    }
+
+    private void deleteStaleTemporaryFiles() throws IOException {
+        long staleTime = System.currentTimeMillis() - STALE_TEMPORARY_FILE_AGE_MILLIS;
+        String temporaryFilePattern = "*" + ENTRY_FILE_EXTENSION + "*" + TEMPORARY_FILE_EXTENSION;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(cacheDirectory, temporaryFilePattern)) {
+            for (Path temporaryPath : directoryStream) {
+                try {
+                    if (Files.getLastModifiedTime(temporaryPath).toMillis() < staleTime) {
+                        Files.deleteIfExists(temporaryPath);
+                    }
+                } catch (NoSuchFileException e) {
+                    //deleted by another process
+                }
+            }
+        }
+    }
+}
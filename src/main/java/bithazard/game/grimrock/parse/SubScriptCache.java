@@ -0,0 +1,63 @@
+package bithazard.game.grimrock.parse;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Results of scripts that are embedded in other scripts (source fields, setSource calls), keyed by the script itself. The errors are stored
+//with relative positions and are added to the collector of every script the embedded script is found in. Their snippets refer to the
+//script, so the cache does not keep syntax trees alive. Scripts are no longer cached once the cached scripts, resource strings and errors
+//reach the maximum total length. A cache is meant to be used for one run only, it is never cleared.
+public final class SubScriptCache {
+    public static final long DEFAULT_MAX_CACHED_LENGTH = 32 * 1024 * 1024;
+    private final ConcurrentMap<String, SubScriptResult> results = new ConcurrentHashMap<>();
+    private final AtomicLong cachedLength = new AtomicLong();
+    private final long maxCachedLength;
+
+    private static final class SubScriptResult {
+        private final Collection<String> resourceStrings;
+        private final ErrorCollector relativeErrorCollector;
+
+        private SubScriptResult(Collection<String> resourceStrings, ErrorCollector relativeErrorCollector) {
+            this.resourceStrings = resourceStrings;
+            this.relativeErrorCollector = relativeErrorCollector;
+        }
+    }
+
+    public SubScriptCache() {
+        this(DEFAULT_MAX_CACHED_LENGTH);
+    }
+
+    public SubScriptCache(long maxCachedLength) {
+        this.maxCachedLength = maxCachedLength;
+    }
+
+    //returns null if the script is not cached
+    Collection<String> get(String script, ErrorCollector errorCollector) {
+        SubScriptResult subScriptResult = results.get(script);
+        if (subScriptResult == null) {
+            return null;
+        }
+        errorCollector.addRelativeErrors(subScriptResult.relativeErrorCollector);
+        return subScriptResult.resourceStrings;
+    }
+
+    Collection<String> put(String script, Collection<String> resourceStrings, ErrorCollector relativeErrorCollector) {
+        Collection<String> cachedResourceStrings = List.copyOf(resourceStrings);
+        long resultLength = script.length() + relativeErrorCollector.getRetainedLength();
+        for (String resourceString : cachedResourceStrings) {
+            resultLength += resourceString.length();
+        }
+        if (cachedLength.addAndGet(resultLength) > maxCachedLength) {
+            cachedLength.addAndGet(-resultLength);
+            return cachedResourceStrings;
+        }
+        //another thread may have parsed the same script in the meantime
+        if (results.putIfAbsent(script, new SubScriptResult(cachedResourceStrings, relativeErrorCollector)) != null) {
+            cachedLength.addAndGet(-resultLength);
+        }
+        return cachedResourceStrings;
+    }
+}
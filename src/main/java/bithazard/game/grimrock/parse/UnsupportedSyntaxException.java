@@ -0,0 +1,20 @@
+package bithazard.game.grimrock.parse;
+
+public class UnsupportedSyntaxException extends RuntimeException {
+    private final int lineNumber;
+    private final int columnNumber;
+
+    public UnsupportedSyntaxException(String message, int lineNumber, int columnNumber) {
+        super(message);
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+}
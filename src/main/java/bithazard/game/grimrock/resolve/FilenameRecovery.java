@@ -0,0 +1,218 @@
+package bithazard.game.grimrock.resolve;
+
+import bithazard.game.grimrock.utils.ByteUtils;
+import bithazard.game.grimrock.utils.ConcurrencyUtils;
+import bithazard.game.grimrock.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FilenameRecovery {
+    private static final List<String> DEFAULT_EXTENSIONS = List.of(".lua", ".txt");
+    private static final Map<String, List<String>> EXTENSION_REWRITES = Map.of(
+            ".tga", List.of(".dds"),
+            ".fbx", List.of(".model", ".animation"));
+    private final int threads;
+    private final long timeBudgetMillis;
+    private final long candidateBudget;
+    private final int maxNumber;
+
+    private static final class Candidate {
+        private final long rank;
+        private final String name;
+
+        private Candidate(long rank, String name) {
+            this.rank = rank;
+            this.name = name;
+        }
+    }
+
+    public FilenameRecovery(int threads, long timeBudgetMillis, long candidateBudget) {
+        this(threads, timeBudgetMillis, candidateBudget, 99);
+    }
+
+    public FilenameRecovery(int threads, long timeBudgetMillis, long candidateBudget, int maxNumber) {
+        this.threads = threads;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.candidateBudget = candidateBudget;
+        this.maxNumber = maxNumber;
+    }
+
+    public ResourceHashIndex recover(Map<Integer, Optional<FileUtils.Filetype>> unresolvedHashes, Collection<String> knownNames) throws IOException {
+        ResourceHashIndex recoveredNames = new ResourceHashIndex();
+        if (unresolvedHashes.isEmpty() || timeBudgetMillis <= 0 || candidateBudget <= 0) {
+            return recoveredNames;
+        }
+        Set<String> directories = new LinkedHashSet<>();
+        Set<String> stems = new LinkedHashSet<>();
+        Set<String> extensions = new LinkedHashSet<>();
+        for (FileUtils.Filetype filetype : FileUtils.Filetype.values()) {
+            extensions.add(filetype.getFileExtension());
+        }
+        extensions.addAll(DEFAULT_EXTENSIONS);
+        for (String knownName : knownNames) {
+            addNameComponents(knownName, directories, stems, extensions);
+        }
+
+        //only try the extensions that fit the file type of at least one unresolved entry
+        List<String> searchedExtensions = new ArrayList<>();
+        List<int[]> targetsByExtension = new ArrayList<>();
+        for (String extension : extensions) {
+            int[] targets = unresolvedHashes.entrySet().stream()
+                    .filter(unresolvedHash -> isExtensionPossible(extension, unresolvedHash.getValue()))
+                    .mapToInt(Map.Entry::getKey)
+                    .sorted()
+                    .toArray();
+            if (targets.length > 0) {
+                searchedExtensions.add(extension);
+                targetsByExtension.add(targets);
+            }
+        }
+        if (searchedExtensions.isEmpty() || directories.isEmpty() || stems.isEmpty()) {
+            return recoveredNames;
+        }
+
+        String[] directoryArray = directories.toArray(new String[0]);
+        String[] stemArray = stems.toArray(new String[0]);
+        String[] extensionArray = searchedExtensions.toArray(new String[0]);
+        String[] numbers = createNumbers();
+        int[] directoryHashes = new int[directoryArray.length];
+        for (int i = 0; i < directoryArray.length; i++) {
+            directoryHashes[i] = ByteUtils.calculateFnv1aHash(directoryArray[i]);
+        }
+        byte[][] stemBytes = toUtf8(stemArray);
+        byte[][] numberBytes = toUtf8(numbers);
+        byte[][] extensionBytes = toUtf8(extensionArray);
+        int[][] targets = targetsByExtension.toArray(new int[0][]);
+
+        //the search space is split into units of one directory and one stem. All units are first tried without and then with a numeric suffix.
+        long unitsPerLevel = (long)directoryArray.length * stemArray.length;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+        AtomicLong nextUnit = new AtomicLong();
+        AtomicLong candidatesTried = new AtomicLong();
+        Map<Integer, Candidate> foundCandidates = new ConcurrentHashMap<>();
+        Runnable worker = () -> {
+            long unit;
+            while ((unit = nextUnit.getAndIncrement()) < unitsPerLevel * 2) {
+                if (System.nanoTime() > deadline || candidatesTried.get() >= candidateBudget || foundCandidates.size() == unresolvedHashes.size()) {
+                    return;
+                }
+                boolean withNumbers = unit >= unitsPerLevel;
+                long unitInLevel = withNumbers ? unit - unitsPerLevel : unit;
+                int directoryIndex = (int)(unitInLevel / stemArray.length);
+                int stemIndex = (int)(unitInLevel % stemArray.length);
+                int stemHash = ByteUtils.updateFnv1aHash(directoryHashes[directoryIndex], stemBytes[stemIndex], 0, stemBytes[stemIndex].length);
+                int numberCount = withNumbers ? numbers.length : 1;
+                for (int numberIndex = 0; numberIndex < numberCount; numberIndex++) {
+                    int numberHash = stemHash;
+                    if (withNumbers) {
+                        numberHash = ByteUtils.updateFnv1aHash(stemHash, numberBytes[numberIndex], 0, numberBytes[numberIndex].length);
+                    }
+                    for (int extensionIndex = 0; extensionIndex < extensionBytes.length; extensionIndex++) {
+                        byte[] extension = extensionBytes[extensionIndex];
+                        int candidateHash = ByteUtils.updateFnv1aHash(numberHash, extension, 0, extension.length);
+                        if (Arrays.binarySearch(targets[extensionIndex], candidateHash) >= 0) {
+                            long rank = (unit * numbers.length + numberIndex) * extensionBytes.length + extensionIndex;
+                            String name = directoryArray[directoryIndex] + stemArray[stemIndex] + (withNumbers ? numbers[numberIndex] : "")
+                                    + extensionArray[extensionIndex];
+                            foundCandidates.merge(candidateHash, new Candidate(rank, name), (oldCandidate, newCandidate) ->
+                                    oldCandidate.rank <= newCandidate.rank ? oldCandidate : newCandidate);
+                        }
+                    }
+                }
+                candidatesTried.addAndGet((long)numberCount * extensionBytes.length);
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workerResults = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workerResults.add(executorService.submit(worker));
+            }
+            for (Future<?> workerResult : workerResults) {
+                ConcurrencyUtils.awaitResult(workerResult);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        foundCandidates.forEach((hash, candidate) -> recoveredNames.put(hash, candidate.name));
+        return recoveredNames;
+    }
+
+    private String[] createNumbers() {
+        Set<String> numbers = new LinkedHashSet<>();
+        for (int i = 0; i <= maxNumber; i++) {
+            numbers.add(String.valueOf(i));
+            numbers.add(String.format("%02d", i));
+            numbers.add(String.format("%03d", i));
+        }
+        return numbers.toArray(new String[0]);
+    }
+
+    private static void addNameComponents(String name, Set<String> directories, Set<String> stems, Set<String> extensions) {
+        int slashPosition = name.indexOf('/');
+        while (slashPosition != -1) {
+            directories.add(name.substring(0, slashPosition + 1));
+            slashPosition = name.indexOf('/', slashPosition + 1);
+        }
+        String filename = name.substring(name.lastIndexOf('/') + 1);
+        int dotPosition = filename.lastIndexOf('.');
+        String stem = filename;
+        if (dotPosition > 0) {
+            stem = filename.substring(0, dotPosition);
+            String extension = filename.substring(dotPosition);
+            extensions.add(extension);
+            extensions.addAll(EXTENSION_REWRITES.getOrDefault(extension, List.of()));
+        }
+        if (stem.isEmpty()) {
+            return;
+        }
+        stems.add(stem);
+        int stemEnd = stem.length();
+        while (stemEnd > 0 && Character.isDigit(stem.charAt(stemEnd - 1))) {
+            stemEnd--;
+        }
+        if (stemEnd > 0 && stemEnd < stem.length()) {
+            stems.add(stem.substring(0, stemEnd));
+            while (stemEnd > 1 && (stem.charAt(stemEnd - 1) == '_' || stem.charAt(stemEnd - 1) == '-')) {
+                stemEnd--;
+            }
+            stems.add(stem.substring(0, stemEnd));
+        }
+    }
+
+    private static boolean isExtensionPossible(String extension, Optional<FileUtils.Filetype> filetype) {
+        if (filetype.isPresent()) {
+            return filetype.get().getFileExtension().equals(extension);
+        }
+        for (FileUtils.Filetype binaryFiletype : FileUtils.Filetype.values()) {
+            if (binaryFiletype.getFileExtension().equals(extension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] toUtf8(String[] strings) {
+        byte[][] utf8Strings = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            utf8Strings[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return utf8Strings;
+    }
+}
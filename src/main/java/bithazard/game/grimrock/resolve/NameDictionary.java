@@ -0,0 +1,186 @@
+package bithazard.game.grimrock.resolve;
+
+import bithazard.game.grimrock.InvalidFileException;
+import bithazard.game.grimrock.utils.ByteUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+//File layout: magic number, version, entry count, sorted hashes, offsets of the names in the string pool (one more than there are entries so
+//that the last name also has an end) and the string pool with all names encoded as UTF-8. Lookups are done directly on the mapped file.
+public class NameDictionary {
+    private static final int MAGIC_NUMBER = 0x474d5844; //"GMXD"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 12;
+    private final Path dictionaryPath;
+    private final ResourceHashIndex addedNames = new ResourceHashIndex();
+    private int size;
+    private IntBuffer hashes;
+    private IntBuffer nameOffsets;
+    private ByteBuffer stringPool;
+
+    private NameDictionary(Path dictionaryPath) {
+        this.dictionaryPath = dictionaryPath;
+    }
+
+    public static NameDictionary open(Path dictionaryPath) throws IOException {
+        NameDictionary nameDictionary = new NameDictionary(dictionaryPath);
+        nameDictionary.map();
+        return nameDictionary;
+    }
+
+    public synchronized int size() {
+        return size + addedNames.size();
+    }
+
+    public synchronized String get(int hash) {
+        String addedName = addedNames.get(hash);
+        if (addedName != null) {
+            return addedName;
+        }
+        int index = findIndex(hash);
+        return index < 0 ? null : getName(index);
+    }
+
+    public synchronized void add(String name) {
+        int hash = ByteUtils.calculateFnv1aHash(name);
+        if (findIndex(hash) < 0) {
+            addedNames.put(hash, name);
+        }
+    }
+
+    public synchronized boolean hasAddedNames() {
+        return addedNames.size() > 0;
+    }
+
+    //merges the added names into the dictionary file. Names added by other processes in the meantime are kept.
+    public synchronized void save() throws IOException {
+        if (!hasAddedNames()) {
+            return;
+        }
+        Path parentPath = dictionaryPath.toAbsolutePath().getParent();
+        Files.createDirectories(parentPath);
+        Path lockPath = parentPath.resolve(dictionaryPath.getFileName() + ".lock");
+        //the lock is released when the channel is closed
+        try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lockChannel.lock();
+            map();
+            int[] mergedHashes = new int[size + addedNames.size()];
+            String[] mergedNames = new String[mergedHashes.length];
+            for (int i = 0; i < size; i++) {
+                mergedHashes[i] = hashes.get(i);
+                mergedNames[i] = getName(i);
+            }
+            int[] mergedCount = {size};
+            addedNames.forEach((hash, name) -> {
+                mergedHashes[mergedCount[0]] = hash;
+                mergedNames[mergedCount[0]++] = name;
+            });
+            write(mergedHashes, mergedNames, mergedCount[0]);
+            addedNames.clear();
+            map();
+        }
+    }
+
+    private void write(int[] unsortedHashes, String[] unsortedNames, int count) throws IOException {
+        //sort by hash without boxing: the upper half is the hash, the lower half the original position, so that existing names come first
+        long[] sortKeys = new long[count];
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = ((long)unsortedHashes[i] << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+        int[] sortedHashes = new int[count];
+        byte[][] sortedNames = new byte[count][];
+        int uniqueCount = 0;
+        for (long sortKey : sortKeys) {
+            int hash = (int)(sortKey >> 32);
+            if (uniqueCount > 0 && sortedHashes[uniqueCount - 1] == hash) {
+                continue;
+            }
+            sortedHashes[uniqueCount] = hash;
+            sortedNames[uniqueCount++] = unsortedNames[(int)sortKey].getBytes(StandardCharsets.UTF_8);
+        }
+
+        Path temporaryPath = dictionaryPath.resolveSibling(dictionaryPath.getFileName() + ".tmp");
+        try (OutputStream fileOutputStream = Files.newOutputStream(temporaryPath);
+             DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+            dataOutputStream.writeInt(MAGIC_NUMBER);
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeInt(uniqueCount);
+            for (int i = 0; i < uniqueCount; i++) {
+                dataOutputStream.writeInt(sortedHashes[i]);
+            }
+            int nameOffset = 0;
+            for (int i = 0; i < uniqueCount; i++) {
+                dataOutputStream.writeInt(nameOffset);
+                nameOffset = Math.addExact(nameOffset, sortedNames[i].length);
+            }
+            dataOutputStream.writeInt(nameOffset);
+            for (int i = 0; i < uniqueCount; i++) {
+                dataOutputStream.write(sortedNames[i]);
+            }
+        }
+        Files.move(temporaryPath, dictionaryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void map() throws IOException {
+        size = 0;
+        if (!Files.exists(dictionaryPath)) {
+            hashes = IntBuffer.allocate(0);
+            return;
+        }
+        ByteBuffer mappedFile;
+        try (FileChannel fileChannel = FileChannel.open(dictionaryPath, StandardOpenOption.READ)) {
+            mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+        if (mappedFile.capacity() < HEADER_LENGTH || mappedFile.getInt(0) != MAGIC_NUMBER || mappedFile.getInt(4) != VERSION) {
+            throw new InvalidFileException(dictionaryPath + " is not a name dictionary.");
+        }
+        int count = mappedFile.getInt(8);
+        int stringPoolPosition = HEADER_LENGTH + count * 8 + 4;
+        if (count < 0 || stringPoolPosition > mappedFile.capacity()) {
+            throw new InvalidFileException("Name dictionary " + dictionaryPath + " is truncated.");
+        }
+        hashes = mappedFile.position(HEADER_LENGTH).slice().asIntBuffer();
+        hashes.limit(count);
+        nameOffsets = mappedFile.position(HEADER_LENGTH + count * 4).slice().asIntBuffer();
+        nameOffsets.limit(count + 1);
+        stringPool = mappedFile.position(stringPoolPosition).slice();
+        size = count;
+    }
+
+    private int findIndex(int hash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleHash = hashes.get(middle);
+            if (middleHash < hash) {
+                low = middle + 1;
+            } else if (middleHash > hash) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private String getName(int index) {
+        int nameStart = nameOffsets.get(index);
+        byte[] nameBytes = new byte[nameOffsets.get(index + 1) - nameStart];
+        stringPool.duplicate().position(nameStart).get(nameBytes);
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package bithazard.game.grimrock.resolve;
+
+import bithazard.game.grimrock.utils.ByteUtils;
+
+import java.util.Arrays;
+
+public class ResourceHashIndex {
+    private static final int MINIMUM_CAPACITY = 16;
+    //golden ratio constant used to spread the hashes over the slots (Fibonacci hashing)
+    private static final int SLOT_MULTIPLIER = 0x9e3779b9;
+    private int[] hashes;
+    private String[] names;
+    private int shift;
+    private int size;
+    private final ResourceHashIndex fallback;
+
+    public interface EntryConsumer {
+        void accept(int hash, String resourceString);
+    }
+
+    public ResourceHashIndex() {
+        this(MINIMUM_CAPACITY / 2);
+    }
+
+    public ResourceHashIndex(int expectedSize) {
+        this(expectedSize, null);
+    }
+
+    //creates an index whose own entries take precedence over the ones of the (not modified) fallback index
+    public ResourceHashIndex(ResourceHashIndex fallback) {
+        this(MINIMUM_CAPACITY / 2, fallback);
+    }
+
+    private ResourceHashIndex(int expectedSize, ResourceHashIndex fallback) {
+        this.fallback = fallback;
+        allocate(Math.max(MINIMUM_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(String resourceString) {
+        put(ByteUtils.calculateFnv1aHash(resourceString), resourceString);
+    }
+
+    public void put(int hash, String resourceString) {
+        if (resourceString == null) {
+            throw new IllegalArgumentException("Resource string must not be null.");
+        }
+        int slot = findSlot(hash);
+        if (names[slot] == null) {
+            hashes[slot] = hash;
+            size++;
+        }
+        names[slot] = resourceString;
+        if (size * 2 > names.length) {
+            resize();
+        }
+    }
+
+    public String get(int hash) {
+        String resourceString = names[findSlot(hash)];
+        if (resourceString == null && fallback != null) {
+            return fallback.get(hash);
+        }
+        return resourceString;
+    }
+
+    public boolean contains(int hash) {
+        return get(hash) != null;
+    }
+
+    //iterates over the own entries only, entries of the fallback index are not included
+    public void forEach(EntryConsumer entryConsumer) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                entryConsumer.accept(hashes[i], names[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(names, null);
+        size = 0;
+    }
+
+    private int findSlot(int hash) {
+        int mask = names.length - 1;
+        int slot = (hash * SLOT_MULTIPLIER) >>> shift;
+        while (names[slot] != null && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldHashes = hashes;
+        String[] oldNames = names;
+        allocate(oldNames.length * 2);
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int slot = findSlot(oldHashes[i]);
+                hashes[slot] = oldHashes[i];
+                names[slot] = oldNames[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        names = new String[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+}
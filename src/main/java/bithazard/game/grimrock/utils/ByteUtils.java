@@ -3,7 +3,6 @@ package bithazard.game.grimrock.utils;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.nio.charset.StandardCharsets;
 
 public final class ByteUtils {
     private static final int FNV_1A_OFFSET_BASIS = 0x811c9dc5;
@@ -23,24 +22,75 @@ public final class ByteUtils {
         return unsigned32BitLittleEndian;
     }
 
+    public static byte[] convertFromUnsigned32BitLittleEndian(long... unsigned32BitLittleEndian) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(unsigned32BitLittleEndian.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : unsigned32BitLittleEndian) {
+            if (value < 0 || value > 0xffffffffL) {
+                throw new IllegalArgumentException("Value " + value + " does not fit into an unsigned 32 bit integer.");
+            }
+            byteBuffer.putInt((int)value);
+        }
+        return byteBuffer.array();
+    }
+
     public static long readAsUnsigned32BitLittleEndian(byte[] bytes, int offset) {
         IntBuffer intBuffer = ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
         int signed32BitLittleEndian = intBuffer.get();
         return Integer.toUnsignedLong(signed32BitLittleEndian);
     }
 
-    public static String calculateFnv1aHash(String stringToHash) {
-        int fnv1aHash = calculateFnv1aHash(stringToHash.getBytes(StandardCharsets.UTF_8));
-        return Integer.toHexString(fnv1aHash);
+    public static int calculateFnv1aHash(CharSequence charsToHash) {
+        return updateFnv1aHash(FNV_1A_OFFSET_BASIS, charsToHash, 0, charsToHash.length());
+    }
+
+    public static int calculateFnv1aHash(byte[] bytes) {
+        return calculateFnv1aHash(bytes, 0, bytes.length);
+    }
+
+    public static int calculateFnv1aHash(byte[] bytes, int offset, int length) {
+        return updateFnv1aHash(FNV_1A_OFFSET_BASIS, bytes, offset, length);
     }
 
-    private static int calculateFnv1aHash(byte[] bytes) {
-        int hash = FNV_1A_OFFSET_BASIS;
-        for (int i = 0; i < bytes.length; i++) {
+    public static int getFnv1aOffsetBasis() {
+        return FNV_1A_OFFSET_BASIS;
+    }
+
+    public static int updateFnv1aHash(int hash, byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
             int unsignedByte = bytes[i] & 0xff;
             hash ^= unsignedByte;
             hash *= FNV_1A_PRIME;
         }
         return hash;
     }
+
+    //encodes the chars as UTF-8 on the fly, producing the same hash as String.getBytes(StandardCharsets.UTF_8) would (including the
+    //replacement of unpaired surrogates with '?'). A surrogate pair must not be split between two calls.
+    public static int updateFnv1aHash(int hash, CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                hash = (hash ^ c) * FNV_1A_PRIME;
+            } else if (c < 0x800) {
+                hash = (hash ^ (0xc0 | (c >> 6))) * FNV_1A_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_1A_PRIME;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    hash = (hash ^ (0xf0 | (codePoint >> 18))) * FNV_1A_PRIME;
+                    hash = (hash ^ (0x80 | ((codePoint >> 12) & 0x3f))) * FNV_1A_PRIME;
+                    hash = (hash ^ (0x80 | ((codePoint >> 6) & 0x3f))) * FNV_1A_PRIME;
+                    hash = (hash ^ (0x80 | (codePoint & 0x3f))) * FNV_1A_PRIME;
+                } else {
+                    hash = (hash ^ '?') * FNV_1A_PRIME;
+                }
+            } else {
+                hash = (hash ^ (0xe0 | (c >> 12))) * FNV_1A_PRIME;
+                hash = (hash ^ (0x80 | ((c >> 6) & 0x3f))) * FNV_1A_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_1A_PRIME;
+            }
+        }
+        return hash;
+    }
 }
@@ -3,51 +3,62 @@ package bithazard.game.grimrock.utils;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Optional;
 
 public final class FileUtils {
+    public static final int MAGIC_NUMBER_LENGTH = 4;
+
     private FileUtils() {
     }
 
     public enum Filetype {
-        ANIMATION("ANIM"),
-        MODEL("MDL1"),
-        SOUND("RIFF"),
-        OGG_VORBIS("OggS"),
-        TEXTURE("DDS "),
-        CINEMATIC("DKIF");
+        ANIMATION("ANIM", ".animation"),
+        MODEL("MDL1", ".model"),
+        SOUND("RIFF", ".wav"),
+        OGG_VORBIS("OggS", ".ogg"),
+        TEXTURE("DDS ", ".dds"),
+        CINEMATIC("DKIF", ".ivf");
 
         private final String magicNumber;
+        private final byte[] magicNumberBytes;
+        private final String fileExtension;
 
-        Filetype(String magicNumber) {
+        Filetype(String magicNumber, String fileExtension) {
             this.magicNumber = magicNumber;
+            this.magicNumberBytes = magicNumber.getBytes(StandardCharsets.US_ASCII);
+            this.fileExtension = fileExtension;
         }
 
         public String getMagicNumber() {
             return magicNumber;
         }
+
+        public String getFileExtension() {
+            return fileExtension;
+        }
     }
 
     public static Optional<Filetype> determineFiletype(File file) throws IOException {
-        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
-            char[] buffer = new char[4];
-            int charsRead = reader.read(buffer, 0, 4);
-            if (charsRead != 4) {
-                return Optional.empty();
-            }
-            String potentialMagicNumber = new String(buffer);
-            for (Filetype filetype : Filetype.values()) {
-                if (filetype.getMagicNumber().equals(potentialMagicNumber)) {
-                    return Optional.of(filetype);
-                }
-            }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return determineFiletype(inputStream.readNBytes(MAGIC_NUMBER_LENGTH));
+        }
+    }
+
+    public static Optional<Filetype> determineFiletype(byte[] bytes) {
+        if (bytes.length < MAGIC_NUMBER_LENGTH) {
             return Optional.empty();
         }
+        for (Filetype filetype : Filetype.values()) {
+            if (Arrays.equals(filetype.magicNumberBytes, 0, MAGIC_NUMBER_LENGTH, bytes, 0, MAGIC_NUMBER_LENGTH)) {
+                return Optional.of(filetype);
+            }
+        }
+        return Optional.empty();
     }
 
     public static String getFilenameWithoutExtension(File file) {
@@ -0,0 +1,33 @@
+package bithazard.game.grimrock.utils;
+
+public final class JsonUtils {
+    private JsonUtils() {
+    }
+
+    //quotes the string as a JSON string literal; null is written as JSON null
+    public static String quote(String rawString) {
+        if (rawString == null) {
+            return "null";
+        }
+        StringBuilder quotedString = new StringBuilder(rawString.length() + 2);
+        quotedString.append('"');
+        for (int i = 0; i < rawString.length(); i++) {
+            char c = rawString.charAt(i);
+            if (c == '"' || c == '\\') {
+                quotedString.append('\\').append(c);
+            } else if (c == '\n') {
+                quotedString.append("\\n");
+            } else if (c == '\r') {
+                quotedString.append("\\r");
+            } else if (c == '\t') {
+                quotedString.append("\\t");
+            } else if (c <= 0x1f) {
+                quotedString.append(String.format("\\u%04x", (int)c));
+            } else {
+                quotedString.append(c);
+            }
+        }
+        quotedString.append('"');
+        return quotedString.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package bithazard.game.grimrock.utils;
+
+public final class LuaStringUtils {
+    private LuaStringUtils() {
+    }
+
+    //decodes the content of a quoted Lua string (without the quotes), the reverse of escapeForLua
+    public static String unescapeLua(String escapedString) {
+        StringBuilder rawString = new StringBuilder(escapedString.length());
+        for (int i = 0; i < escapedString.length(); i++) {
+            char c = escapedString.charAt(i);
+            if (c != '\\' || i + 1 == escapedString.length()) {
+                rawString.append(c);
+                continue;
+            }
+            char escapedChar = escapedString.charAt(++i);
+            if (escapedChar >= '0' && escapedChar <= '9') {
+                int value = escapedChar - '0';
+                for (int digits = 1; digits < 3 && i + 1 < escapedString.length() && escapedString.charAt(i + 1) >= '0'
+                        && escapedString.charAt(i + 1) <= '9'; digits++) {
+                    value = value * 10 + escapedString.charAt(++i) - '0';
+                }
+                rawString.append((char)value);
+                continue;
+            }
+            switch (escapedChar) {
+                case 'a': rawString.append('\u0007'); break;
+                case 'b': rawString.append('\b'); break;
+                case 'f': rawString.append('\f'); break;
+                case 'n': rawString.append('\n'); break;
+                case 'r': rawString.append('\r'); break;
+                case 't': rawString.append('\t'); break;
+                case 'v': rawString.append('\u000b'); break;
+                case '\r':
+                    //an escaped line break may consist of two characters
+                    if (i + 1 < escapedString.length() && escapedString.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    rawString.append('\n');
+                    break;
+                default: rawString.append(escapedChar);
+            }
+        }
+        return rawString.toString();
+    }
+
+    //produces the same output as string.format('%q', rawString) of LuaJ (StringLib.addquoted) without starting a Lua runtime. Compared with
+    //the output of LuaJ 3.0.1 for every character up to 0x7f alone, at the end and before digits and letters, for \r\n, \0 before digits and
+    //for non-ASCII text including surrogate pairs. Like LuaJ, a 0x7f before a digit is written as "\0<7", which Lua does not read back.
+    public static String escapeForLua(String rawString) {
+        StringBuilder escapedString = new StringBuilder(rawString.length() + 2);
+        escapedString.append('"');
+        for (int i = 0; i < rawString.length(); i++) {
+            char c = rawString.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n') {
+                escapedString.append('\\').append(c);
+            } else if (c <= 0x1f || c == 0x7f) {
+                escapedString.append('\\');
+                boolean nextCharIsDigit = i + 1 < rawString.length() && rawString.charAt(i + 1) >= '0' && rawString.charAt(i + 1) <= '9';
+                if (nextCharIsDigit) {
+                    //a following digit would otherwise be read as part of the escape sequence
+                    escapedString.append('0').append((char)('0' + c / 10)).append((char)('0' + c % 10));
+                } else {
+                    escapedString.append((int)c);
+                }
+            } else {
+                escapedString.append(c);
+            }
+        }
+        escapedString.append('"');
+        return escapedString.toString();
+    }
+}
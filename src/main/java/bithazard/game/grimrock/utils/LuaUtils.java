@@ -6,30 +6,16 @@ import org.luaj.vm2.ast.Exp;
 import org.luaj.vm2.ast.TableConstructor;
 import org.luaj.vm2.ast.TableField;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public final class LuaUtils {
-    private static final Pattern START_OF_LINE = Pattern.compile("(?m)^");
+    private static final String TABLE_FIELD_INDENTATION = "    ";
 
     private LuaUtils() {
     }
 
-    public static String escapeForLua(String rawString) throws ScriptException {
-        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-        ScriptEngine scriptEngine = scriptEngineManager.getEngineByName("luaj");
-        scriptEngine.put("rawString", rawString);
-        scriptEngine.eval("escapedString = string.format('%q', rawString)");
-        return (String)scriptEngine.get("escapedString");
-    }
-
     public static Exp unwrapParensExp(Exp exp) {
         Exp unwrappedExp = exp;
         while (unwrappedExp instanceof Exp.ParensExp) {
@@ -43,68 +29,113 @@ public final class LuaUtils {
     }
 
     public static String expToString(Exp exp) {
-        if (exp instanceof Exp.AnonFuncDef) {
-            return "Not Yet Implemented " + exp;
+        return expToString(exp, "", Integer.MAX_VALUE);
+    }
+
+    //renders the expression with every line after the first prefixed with the passed indentation. Rendering stops as soon as the result is
+    //longer than maxLength characters, in which case the result is cut and ends with "...".
+    public static String expToString(Exp exp, String indentation, int maxLength) {
+        StringBuilder stringBuilder = new StringBuilder();
+        appendExp(stringBuilder, exp, indentation, maxLength);
+        if (stringBuilder.length() > maxLength) {
+            stringBuilder.setLength(maxLength);
+            stringBuilder.append("...");
         }
-        if (exp instanceof Exp.BinopExp) {
-            Exp.BinopExp binopExp = (Exp.BinopExp)exp;
-            return expToString(binopExp.lhs) + " " + opToString(binopExp.op) + " " + expToString(binopExp.rhs);
+        return stringBuilder.toString();
+    }
+
+    private static void appendExp(StringBuilder stringBuilder, Exp exp, String indentation, int maxLength) {
+        if (stringBuilder.length() > maxLength) {
+            return;
         }
-        if (exp instanceof Exp.Constant) {
+        if (exp instanceof Exp.AnonFuncDef) {
+            appendText(stringBuilder, "Not Yet Implemented " + exp, indentation);
+        } else if (exp instanceof Exp.BinopExp) {
+            Exp.BinopExp binopExp = (Exp.BinopExp)exp;
+            appendExp(stringBuilder, binopExp.lhs, indentation, maxLength);
+            stringBuilder.append(' ').append(opToString(binopExp.op)).append(' ');
+            appendExp(stringBuilder, binopExp.rhs, indentation, maxLength);
+        } else if (exp instanceof Exp.Constant) {
             Exp.Constant constant = (Exp.Constant)exp;
             if (constant.value instanceof LuaString) {
-                return "\"" + constant.value + "\"";
+                stringBuilder.append('"');
+                appendText(stringBuilder, constant.value.toString(), indentation);
+                stringBuilder.append('"');
+            } else {
+                appendText(stringBuilder, constant.value.toString(), indentation);
             }
-            return constant.value.toString();
-        }
-        if (exp instanceof Exp.FieldExp) {
+        } else if (exp instanceof Exp.FieldExp) {
             Exp.FieldExp fieldExp = (Exp.FieldExp)exp;
-            String lhs = expToString(fieldExp.lhs);
-            return lhs + "." + fieldExp.name.name;
-        }
-        if (exp instanceof Exp.MethodCall) {
+            appendExp(stringBuilder, fieldExp.lhs, indentation, maxLength);
+            stringBuilder.append('.').append(fieldExp.name.name);
+        } else if (exp instanceof Exp.MethodCall) {
             Exp.MethodCall methodCall = (Exp.MethodCall)exp;
-            String lhs = expToString(methodCall.lhs);
-            List<Exp> exps = methodCall.args.exps != null ? methodCall.args.exps : Collections.emptyList();
-            String methodArgsString = exps.stream().map(LuaUtils::expToString).collect(Collectors.joining(", "));
-            return lhs + ":" + methodCall.name + "(" + methodArgsString + ")";
-        }
-        if (exp instanceof Exp.FuncCall) {
+            appendExp(stringBuilder, methodCall.lhs, indentation, maxLength);
+            stringBuilder.append(':').append(methodCall.name);
+            appendArgs(stringBuilder, methodCall.args.exps, indentation, maxLength);
+        } else if (exp instanceof Exp.FuncCall) {
             Exp.FuncCall funcCall = (Exp.FuncCall)exp;
-            String lhs = expToString(funcCall.lhs);
-            List<Exp> exps = funcCall.args.exps != null ? funcCall.args.exps : Collections.emptyList();
-            String functionArgsString = exps.stream().map(LuaUtils::expToString).collect(Collectors.joining(", "));
-            return lhs + "(" + functionArgsString + ")";
-        }
-        if (exp instanceof Exp.IndexExp) {
+            appendExp(stringBuilder, funcCall.lhs, indentation, maxLength);
+            appendArgs(stringBuilder, funcCall.args.exps, indentation, maxLength);
+        } else if (exp instanceof Exp.IndexExp) {
             Exp.IndexExp indexExp = (Exp.IndexExp)exp;
-            return expToString(indexExp.lhs) + "[" + expToString(indexExp.exp) + "]";
-        }
-        if (exp instanceof Exp.NameExp) {
+            appendExp(stringBuilder, indexExp.lhs, indentation, maxLength);
+            stringBuilder.append('[');
+            appendExp(stringBuilder, indexExp.exp, indentation, maxLength);
+            stringBuilder.append(']');
+        } else if (exp instanceof Exp.NameExp) {
             Exp.NameExp nameExp = (Exp.NameExp)exp;
-            return nameExp.name.name;
-        }
-        if (exp instanceof Exp.ParensExp) {
+            stringBuilder.append(nameExp.name.name);
+        } else if (exp instanceof Exp.ParensExp) {
             Exp.ParensExp parensExp = (Exp.ParensExp)exp;
-            return "(" + expToString(parensExp.exp) + ")";
-        }
-        if (exp instanceof Exp.UnopExp) {
-            return "Not Yet Implemented " + exp;
-        }
-        if (exp instanceof Exp.VarargsExp) {
-            return "Not Yet Implemented " + exp;
-        }
-        if (exp instanceof TableConstructor) {
+            stringBuilder.append('(');
+            appendExp(stringBuilder, parensExp.exp, indentation, maxLength);
+            stringBuilder.append(')');
+        } else if (exp instanceof Exp.UnopExp || exp instanceof Exp.VarargsExp) {
+            appendText(stringBuilder, "Not Yet Implemented " + exp, indentation);
+        } else if (exp instanceof TableConstructor) {
             TableConstructor tableConstructor = (TableConstructor)exp;
             List<TableField> fields = tableConstructor.fields;
-            List<String> tableFields = new ArrayList<>();
-            for (TableField field : fields) {
-                tableFields.add(field.name + " = " + expToString(field.rhs));
+            String fieldIndentation = indentation + TABLE_FIELD_INDENTATION;
+            stringBuilder.append('{');
+            if (fields.isEmpty()) {
+                appendText(stringBuilder, "\n", fieldIndentation);
+            }
+            for (int i = 0; i < fields.size() && stringBuilder.length() <= maxLength; i++) {
+                TableField field = fields.get(i);
+                appendText(stringBuilder, "\n" + field.name + " = ", fieldIndentation);
+                appendExp(stringBuilder, field.rhs, fieldIndentation, maxLength);
+                if (i < fields.size() - 1) {
+                    stringBuilder.append(',');
+                }
             }
-            String tableContent = START_OF_LINE.matcher(String.join(",\n", tableFields)).replaceAll("    ");
-            return "{\n" + tableContent + "\n}";
+            appendText(stringBuilder, "\n}", indentation);
+        } else {
+            throw new AssertionError("Passed exp has unexpected type");
+        }
+    }
+
+    private static void appendArgs(StringBuilder stringBuilder, List<Exp> exps, String indentation, int maxLength) {
+        stringBuilder.append('(');
+        if (exps != null) {
+            for (int i = 0; i < exps.size() && stringBuilder.length() <= maxLength; i++) {
+                if (i > 0) {
+                    stringBuilder.append(", ");
+                }
+                appendExp(stringBuilder, exps.get(i), indentation, maxLength);
+            }
+        }
+        stringBuilder.append(')');
+    }
+
+    private static void appendText(StringBuilder stringBuilder, String text, String indentation) {
+        int lineStart = 0;
+        int newlinePosition;
+        while ((newlinePosition = text.indexOf('\n', lineStart)) != -1) {
+            stringBuilder.append(text, lineStart, newlinePosition + 1).append(indentation);
+            lineStart = newlinePosition + 1;
         }
-        throw new AssertionError("Passed exp has unexpected type");
+        stringBuilder.append(text, lineStart, text.length());
     }
 
     private static String opToString(int op) {